@@ -56,6 +56,8 @@ public class ColumnOperations {
 			throw new TableException("Duplicate column '" + newName + ".");
 		}
 		AbstractColumn column = get(oldName);
+		table.modified();
+		table.dropIndexes(oldName);
 		column.setName(newName);
 		columnsIndex.remove(oldName);
 		columnsIndex.put(newName, column);
@@ -81,6 +83,7 @@ public class ColumnOperations {
 			throw new TableException("Duplicate column '" + column + ".");
 		}
 
+		table.modified();
 		columns.add(column);
 		columnsIndex.put(column.getName(), column);
 
@@ -118,6 +121,8 @@ public class ColumnOperations {
 		newColumn.copyDataFrom(column);
 
 		int index = columns.indexOf(column);
+		table.modified();
+		table.dropIndexes(column.getName());
 		columns.set(index, newColumn);
 		columnsIndex.put(column.getName(), newColumn);
 	}
@@ -156,9 +161,11 @@ public class ColumnOperations {
 				removedColumns.add(column);
 			}
 		}
+		table.modified();
 		columns.removeAll(removedColumns);
 		for (AbstractColumn removedColumn : removedColumns) {
 			columnsIndex.remove(removedColumn.getName());
+			table.dropIndexes(removedColumn.getName());
 		}
 	}
 
@@ -177,9 +184,11 @@ public class ColumnOperations {
 				removedColumns.add(column);
 			}
 		}
+		table.modified();
 		columns.removeAll(removedColumns);
 		for (AbstractColumn removedColumn : removedColumns) {
 			columnsIndex.remove(removedColumn.getName());
+			table.dropIndexes(removedColumn.getName());
 		}
 	}
 
@@ -188,6 +197,7 @@ public class ColumnOperations {
 	}
 
 	public void clear() {
+		table.modified();
 		columns.clear();
 		columnsIndex.clear();
 	}
@@ -3,15 +3,22 @@ package lukfor.tables;
 import java.io.IOException;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.IntConsumer;
 
 import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSelector;
 import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.columns.SortKey;
 import lukfor.tables.rows.IRowProcessor;
+import lukfor.tables.rows.MultiTableIndex;
 import lukfor.tables.rows.Row;
 import lukfor.tables.rows.filters.IRowFilter;
 import lukfor.tables.rows.filters.RowValueRegExFilter;
-import lukfor.tables.rows.processors.RowDuplicateProcessor;
 import lukfor.tables.rows.processors.RowSelectionProcessor;
+import lukfor.tables.utils.Bitmap;
+import lukfor.tables.utils.Deduplicator;
+import lukfor.tables.utils.IndexUtil;
+import lukfor.tables.utils.ParallelUtil;
 
 public class RowOperations {
 
@@ -28,6 +35,11 @@ public class RowOperations {
 
 	public List<Row> getAll(final String column, final Object value) {
 
+		MultiTableIndex index = table.getMultiIndex(column);
+		if (index != null) {
+			return index.getRows(value);
+		}
+
 		return getAll(new IRowFilter() {
 			public boolean accepts(Row row) {
 				Object valueRow = row.getObject(column);
@@ -37,6 +49,27 @@ public class RowOperations {
 
 	}
 
+	public List<Row> getAll(final String[] columns, final Object... values) {
+
+		MultiTableIndex index = table.getMultiIndex(columns);
+		if (index != null) {
+			return index.getRows(values);
+		}
+
+		return getAll(new IRowFilter() {
+			public boolean accepts(Row row) {
+				for (int i = 0; i < columns.length; i++) {
+					Object valueRow = row.getObject(columns[i]);
+					if (valueRow == null ? values[i] != null : !valueRow.equals(values[i])) {
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+
+	}
+
 	public List<Row> getAllByRegEx(final String column, final String value) {
 
 		return getAll(new IRowFilter() {
@@ -60,7 +93,17 @@ public class RowOperations {
 		return results;
 	}
 
+	public List<Row> getAll(Bitmap bitmap) {
+		int[] positions = bitmap.toArray();
+		List<Row> results = new Vector<Row>(positions.length);
+		for (int position : positions) {
+			results.add(get(position));
+		}
+		return results;
+	}
+
 	public Row append() {
+		table.modified();
 		for (AbstractColumn column : table.storage) {
 			column.add(null);
 		}
@@ -83,11 +126,60 @@ public class RowOperations {
 	public void sortBy(final String column, final int order) {
 		table.assertsColumnExists(column);
 		ColumnSorter processor = new ColumnSorter(table.getColumns().get(column), order);
+		sort(processor.getPositions());
+	}
 
-		for (AbstractColumn columnr : table.storage) {
-			columnr.sort(processor.getIndices());
+	public void sortBy(final SortKey... keys) {
+		AbstractColumn[] columns = new AbstractColumn[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			table.assertsColumnExists(keys[i].getColumn());
+			columns[i] = table.getColumns().get(keys[i].getColumn());
 		}
+		ColumnSorter processor = new ColumnSorter(columns, keys);
+		sort(processor.getPositions());
+	}
+
+	// the n rows with the largest values, without sorting the table
+	public Table topN(final String column, int n) {
+		return topN(column, n, ColumnSorter.SORT_DESCEND);
+	}
+
+	// the n rows with the smallest values, without sorting the table
+	public Table bottomN(final String column, int n) {
+		return topN(column, n, ColumnSorter.SORT_ASCEND);
+	}
+
+	// the first n rows with a value in the given sort order as a new table.
+	// only the selected rows are copied.
+	public Table topN(final String column, int n, int order) {
+		table.assertsColumnExists(column);
+		ColumnSelector selector = new ColumnSelector(table.getColumns().get(column), n, order);
+		return copy(selector.getPositions(), (order == ColumnSorter.SORT_DESCEND ? "top" : "bottom") + n);
+	}
 
+	// copies the rows at the given positions to a new table
+	public Table copy(int[] positions, String name) {
+		Table result = table.cloneStructure(name);
+		for (AbstractColumn column : table.storage) {
+			AbstractColumn resultColumn = result.getColumn(column.getName());
+			for (int position : positions) {
+				resultColumn.add(column.get(position));
+			}
+		}
+		return result;
+	}
+
+	// applies the permutation to all columns concurrently
+	private void sort(final int[] positions) {
+		table.modified();
+		table.updateIndexes();
+		final List<AbstractColumn> columns = table.storage;
+		ParallelUtil.DEFAULT.forEach(columns.size(), (long) columns.size() * positions.length, new IntConsumer() {
+			public void accept(int i) {
+				columns.get(i).sort(positions);
+			}
+		});
+		table.remapIndexes(positions);
 	}
 
 	public void dropByRegEx(String column, String regExp) throws RuntimeException {
@@ -108,9 +200,12 @@ public class RowOperations {
 
 		int rowsBefore = getSize();
 
+		table.modified();
+		table.updateIndexes();
 		for (AbstractColumn column : table.storage) {
 			column.drop(bitmask);
 		}
+		table.remapIndexes(IndexUtil.toPositions(bitmask, false));
 
 		int rowsAfter = getSize();
 
@@ -120,10 +215,18 @@ public class RowOperations {
 
 	}
 
-	public void dropDuplicates() {
-		RowDuplicateProcessor processor = new RowDuplicateProcessor();
-		table.forEachRow(processor);
-		drop(processor.getBitmask());
+	public void drop(Bitmap bitmap) {
+		select(bitmap.not(getSize()).toArray());
+	}
+
+	// keeps the first row of each distinct key, all columns if no columns are
+	// given
+	public void dropDuplicates(String... columns) {
+		drop(new Deduplicator(table, columns).getDuplicates());
+	}
+
+	public void dropDuplicates(boolean keepLast, String... columns) {
+		drop(new Deduplicator(table, columns).withKeepLast(keepLast).getDuplicates());
 	}
 
 	public void dropMissings() {
@@ -168,9 +271,38 @@ public class RowOperations {
 
 		int rowsBefore = getSize();
 
+		table.modified();
+		table.updateIndexes();
 		for (AbstractColumn column : table.storage) {
 			column.select(bitmask);
 		}
+		table.remapIndexes(IndexUtil.toPositions(bitmask, true));
+
+		int rowsAfter = getSize();
+
+		Table.log(table, "#Rows before: " + rowsBefore);
+		Table.log(table, "#Rows after: " + rowsAfter);
+		Table.log(table, "Filtered table.");
+
+	}
+
+	public void select(Bitmap bitmap) {
+		select(bitmap.toArray());
+	}
+
+	// keeps the rows at the given positions in the given order
+	public void select(int[] positions) {
+
+		Table.log(table, "Filtering rows...");
+
+		int rowsBefore = getSize();
+
+		table.modified();
+		table.updateIndexes();
+		for (AbstractColumn column : table.storage) {
+			column.select(positions);
+		}
+		table.remapIndexes(positions);
 
 		int rowsAfter = getSize();
 
@@ -1,5 +1,7 @@
 package lukfor.tables;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -9,16 +11,28 @@ import com.jakewharton.fliptables.FlipTable;
 import lukfor.tables.columns.AbstractColumn;
 import lukfor.tables.columns.ColumnType;
 import lukfor.tables.columns.ColumnTypeDetector;
+import lukfor.tables.columns.Histogram;
 import lukfor.tables.columns.types.StringColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.BitmapIndex;
+import lukfor.tables.rows.IGroupAggregator;
 import lukfor.tables.rows.IRowAggregator;
 import lukfor.tables.rows.IRowMapper;
 import lukfor.tables.rows.IRowProcessor;
+import lukfor.tables.rows.ITableIndex;
+import lukfor.tables.rows.MultiTableIndex;
 import lukfor.tables.rows.Row;
+import lukfor.tables.rows.SortedTableIndex;
 import lukfor.tables.rows.TableIndex;
+import lukfor.tables.rows.aggregators.Aggregators;
 import lukfor.tables.rows.mappers.BinRowMapper;
 import lukfor.tables.rows.processors.RowCopyProcessor;
 import lukfor.tables.rows.processors.RowGroupProcessor;
 import lukfor.tables.utils.GroupByBuilder;
+import lukfor.tables.utils.HashAggregator;
+import lukfor.tables.utils.JoinBuilder;
+import lukfor.tables.utils.Pivot;
+import lukfor.tables.utils.WindowBuilder;
 
 public class Table {
 
@@ -26,9 +40,20 @@ public class Table {
 
 	protected List<AbstractColumn> storage = new Vector<AbstractColumn>();
 
-	private RowOperations rows;
+	protected RowOperations rows;
 
-	private ColumnOperations columns;
+	protected ColumnOperations columns;
+
+	// changes of the rows or columns (not of values), e.g. to detect outdated
+	// views
+	private long modifications = 0;
+
+	private List<ITableIndex> indexes = new Vector<ITableIndex>();
+
+	// columns and their writes when each index was registered
+	private Map<ITableIndex, AbstractColumn[]> indexColumns = new HashMap<ITableIndex, AbstractColumn[]>();
+
+	private Map<ITableIndex, long[]> indexWrites = new HashMap<ITableIndex, long[]>();
 
 	private static boolean logging = true;
 
@@ -75,15 +100,33 @@ public class Table {
 	}
 
 	public GroupByBuilder groupBy(final String column) {
+		return new GroupByBuilder(this, column);
+	}
 
-		IRowMapper mapper = new IRowMapper() {
-			@Override
-			public Object getKey(Row row) {
-				return row.getObject(column);
-			}
-		};
+	// groups by the values of several columns. key columns are part of the result.
+	public GroupByBuilder groupBy(final String... columns) {
+		return new GroupByBuilder(this, columns);
+	}
 
-		return new GroupByBuilder(this, mapper, column);
+	// aggregates all groups in a single pass without creating a table per group
+	public Table groupBy(final String column, IGroupAggregator... aggregators) {
+		return new HashAggregator(this, column).aggregate(aggregators);
+	}
+
+	// window functions, e.g. window().partitionBy("k").orderBy("t").rollingMean("x", 7)
+	public WindowBuilder window() {
+		return new WindowBuilder(this);
+	}
+
+	// one row per value of rowKey, one column per value of columnKey, e.g.
+	// pivot("gene", "sample", Aggregators.mean("value"))
+	public Table pivot(String rowKey, String columnKey, IGroupAggregator aggregator) {
+		return new Pivot(this, rowKey, columnKey).aggregate(aggregator);
+	}
+
+	// number of rows per value of rowKey and columnKey
+	public Table crosstab(String rowKey, String columnKey) {
+		return pivot(rowKey, columnKey, Aggregators.count());
 	}
 
 	public Table groupBy(final String column, IRowAggregator aggregator) {
@@ -107,10 +150,9 @@ public class Table {
 		return groupBy(new BinRowMapper(column, binSize), aggregator);
 	}
 
+	// counts of all non-empty bins in bin order
 	public Table hist(final String column, double binSize) {
-		Table hist = binBy(column, binSize).count();
-		hist.getRows().sortBy(column);
-		return hist;
+		return Histogram.fixed(getColumn(column), binSize).toTable(column);
 	}
 
 	public Table groupBy(IRowMapper mapper, IRowAggregator aggregator) {
@@ -136,22 +178,53 @@ public class Table {
 		return result;
 	}
 
+	// one view per group in order of their first row. views share the columns of
+	// this table and hold only the positions of their rows.
 	public List<Table> splitBy(IRowMapper mapper) {
-		RowGroupProcessor processor = new RowGroupProcessor(mapper);
-		forEachRow(processor);
-		List<Table> result = new Vector<>();
-		Map<Object, List<Integer>> groups = processor.getGroups();
-		for (Object key : groups.keySet()) {
-			List<Integer> indices = groups.get(key);
-			Table groupedTable = this.cloneStructure(name + ":" + key);
-			for (Integer index : indices) {
-				Row row = getRows().get(index);
-				Row newRow = groupedTable.getRows().append();
-				newRow.fill(row);
+
+		long start = System.currentTimeMillis();
+
+		int size = getRows().getSize();
+		Map<Object, Integer> ids = new HashMap<Object, Integer>();
+		List<Object> keys = new Vector<Object>();
+		int[] groups = new int[size];
+		for (int i = 0; i < size; i++) {
+			Object key = mapper.getKey(getRow(i));
+			Integer group = ids.get(key);
+			if (group == null) {
+				group = keys.size();
+				ids.put(key, group);
+				keys.add(key);
 			}
-			result.add(groupedTable);
+			groups[i] = group;
+		}
+
+		// counting sort of the positions by group
+		int[] offsets = new int[keys.size() + 1];
+		for (int group : groups) {
+			offsets[group + 1]++;
 		}
+		for (int group = 0; group < keys.size(); group++) {
+			offsets[group + 1] += offsets[group];
+		}
+		int[] positions = new int[size];
+		int[] next = Arrays.copyOf(offsets, keys.size());
+		for (int i = 0; i < size; i++) {
+			positions[next[groups[i]]++] = i;
+		}
+
+		List<Table> result = new Vector<>();
+		for (int group = 0; group < keys.size(); group++) {
+			int[] rows = Arrays.copyOfRange(positions, offsets[group], offsets[group + 1]);
+			result.add(new TableView(name + ":" + keys.get(group), this, rows));
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log(this, "Split " + size + " rows into " + result.size() + " views. Time: " + (end - start) + " ms");
+
 		return result;
+
 	}
 
 	public void append(Table table) {
@@ -190,6 +263,11 @@ public class Table {
 		}
 	}
 
+	// joins into a new table, e.g. join(table2).on("column").type(JoinType.FULL)
+	public JoinBuilder join(Table table2) {
+		return new JoinBuilder(this, table2);
+	}
+
 	public void merge(final Table table2, final String column) {
 		merge(table2, column, column);
 	}
@@ -209,8 +287,14 @@ public class Table {
 			}
 		}
 
-		// create index on table2 for columns columnTable2
-		TableIndex index = table2.createIndex(columnTable2);
+		// unique index of table2 on columnTable2, a registered index is reused and
+		// is never stale. a private index is built only if table2 has none.
+		TableIndex registered = table2.findIndex(TableIndex.class, columnTable2);
+		if (registered == null) {
+			registered = new TableIndex(table2);
+			registered.build(table2.getColumn(columnTable2));
+		}
+		final TableIndex index = registered;
 
 		// use index to find for each row in table1 the row in table 2
 		forEachRow(new IRowProcessor() {
@@ -262,14 +346,29 @@ public class Table {
 		return name;
 	}
 
+	public long getModifications() {
+		return modifications;
+	}
+
+	protected void modified() {
+		modifications++;
+	}
+
 	public TableIndex createIndex(String column) {
+
+		TableIndex index = findIndex(TableIndex.class, column);
+		if (index != null) {
+			return index;
+		}
+
 		Table.log(this, "Creating index on column " + column + "...");
 
 		long start = System.currentTimeMillis();
 
 		assertsColumnExists(column);
-		TableIndex index = new TableIndex(this);
+		index = new TableIndex(this);
 		index.build(getColumn(column));
+		register(index);
 
 		long end = System.currentTimeMillis();
 
@@ -277,6 +376,201 @@ public class Table {
 		return index;
 	}
 
+	public MultiTableIndex createMultiIndex(String... columns) {
+
+		MultiTableIndex index = getMultiIndex(columns);
+		if (index != null) {
+			return index;
+		}
+
+		Table.log(this, "Creating index on columns " + String.join(", ", columns) + "...");
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn[] indexColumns = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			assertsColumnExists(columns[i]);
+			indexColumns[i] = getColumn(columns[i]);
+		}
+		index = new MultiTableIndex(this);
+		index.build(indexColumns);
+		register(index);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(this, "Index created. " + index.getKeys() + " distinct keys. Time: " + (end - start) + " ms");
+		return index;
+	}
+
+	public SortedTableIndex createSortedIndex(String column) {
+
+		SortedTableIndex index = findIndex(SortedTableIndex.class, column);
+		if (index != null) {
+			return index;
+		}
+
+		Table.log(this, "Creating sorted index on column " + column + "...");
+
+		long start = System.currentTimeMillis();
+
+		assertsColumnExists(column);
+		index = new SortedTableIndex(this);
+		index.build(getColumn(column));
+		register(index);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(this, "Sorted index created. Time: " + (end - start) + " ms");
+		return index;
+	}
+
+	public BitmapIndex createBitmapIndex(String column) {
+
+		BitmapIndex index = findIndex(BitmapIndex.class, column);
+		if (index != null) {
+			return index;
+		}
+
+		Table.log(this, "Creating bitmap index on column " + column + "...");
+
+		long start = System.currentTimeMillis();
+
+		assertsColumnExists(column);
+		index = new BitmapIndex(this);
+		index.build(getColumn(column));
+		register(index);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(this, "Bitmap index created. " + index.getValues().size() + " distinct values. Time: "
+				+ (end - start) + " ms");
+		return index;
+	}
+
+	public MultiTableIndex getMultiIndex(String... columns) {
+		return findIndex(MultiTableIndex.class, columns);
+	}
+
+	public void addIndex(ITableIndex index) {
+		ITableIndex existing = findIndex(index.getClass(), index.getColumnNames());
+		if (existing != null) {
+			indexes.remove(existing);
+			indexColumns.remove(existing);
+			indexWrites.remove(existing);
+		}
+		register(index);
+	}
+
+	public List<ITableIndex> getIndexes() {
+		dropStaleIndexes();
+		return indexes;
+	}
+
+	public void dropIndexes() {
+		indexes.clear();
+		indexColumns.clear();
+		indexWrites.clear();
+	}
+
+	public void dropIndexes(String column) {
+		List<ITableIndex> removedIndexes = new Vector<ITableIndex>();
+		for (ITableIndex index : indexes) {
+			if (Arrays.asList(index.getColumnNames()).contains(column)) {
+				removedIndexes.add(index);
+			}
+		}
+		indexes.removeAll(removedIndexes);
+		for (ITableIndex index : removedIndexes) {
+			indexColumns.remove(index);
+			indexWrites.remove(index);
+		}
+	}
+
+	// brings all indexes up to date before rows are reordered. a unique index
+	// that fails because of appended duplicates is dropped and the failure is
+	// thrown once, later operations run without this index.
+	protected void updateIndexes() {
+		dropStaleIndexes();
+		List<ITableIndex> removedIndexes = new Vector<ITableIndex>();
+		TableException error = null;
+		for (ITableIndex index : indexes) {
+			try {
+				index.update();
+			} catch (TableException e) {
+				Table.log(this, "Dropping index on " + String.join(", ", index.getColumnNames()) + ". "
+						+ e.getMessage());
+				removedIndexes.add(index);
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		indexes.removeAll(removedIndexes);
+		for (ITableIndex index : removedIndexes) {
+			indexColumns.remove(index);
+			indexWrites.remove(index);
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void register(ITableIndex index) {
+		indexes.add(index);
+		String[] names = index.getColumnNames();
+		AbstractColumn[] indexed = new AbstractColumn[names.length];
+		long[] writes = new long[names.length];
+		for (int i = 0; i < names.length; i++) {
+			indexed[i] = getColumn(names[i]);
+			writes[i] = indexed[i].getWrites();
+		}
+		indexColumns.put(index, indexed);
+		indexWrites.put(index, writes);
+	}
+
+	// drops indexes whose columns were replaced or whose indexed values were
+	// changed since the index was created
+	private void dropStaleIndexes() {
+		List<ITableIndex> removedIndexes = new Vector<ITableIndex>();
+		List<String> names = Arrays.asList(columns.getNames());
+		for (ITableIndex index : indexes) {
+			AbstractColumn[] indexed = indexColumns.get(index);
+			long[] writes = indexWrites.get(index);
+			String[] indexNames = index.getColumnNames();
+			for (int i = 0; i < indexNames.length; i++) {
+				if (!names.contains(indexNames[i]) || getColumn(indexNames[i]) != indexed[i]
+						|| indexed[i].getWrites() != writes[i]) {
+					Table.log(this, "Dropping index on " + String.join(", ", indexNames) + ". Values have changed.");
+					removedIndexes.add(index);
+					break;
+				}
+			}
+		}
+		indexes.removeAll(removedIndexes);
+		for (ITableIndex index : removedIndexes) {
+			indexColumns.remove(index);
+			indexWrites.remove(index);
+		}
+	}
+
+	// positions[i] is the old position of the row that is now at position i
+	protected void remapIndexes(int[] positions) {
+		for (ITableIndex index : indexes) {
+			index.remap(positions);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends ITableIndex> T findIndex(Class<T> type, String... columns) {
+		dropStaleIndexes();
+		for (ITableIndex index : indexes) {
+			if (type.isInstance(index) && Arrays.equals(index.getColumnNames(), columns)) {
+				return (T) index;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public String toString() {
 		try {
@@ -396,6 +690,7 @@ public class Table {
 	}
 
 	public void clear() {
+		dropIndexes();
 		storage.clear();
 		columns.clear();
 		rows.clear();
@@ -0,0 +1,474 @@
+package lukfor.tables;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnType;
+import lukfor.tables.columns.IBuildValueFunction;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.columns.filters.IColumnFilter;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.BitmapIndex;
+import lukfor.tables.rows.ITableIndex;
+import lukfor.tables.rows.IRowProcessor;
+import lukfor.tables.rows.MultiTableIndex;
+import lukfor.tables.rows.Row;
+import lukfor.tables.rows.SortedTableIndex;
+import lukfor.tables.rows.TableIndex;
+
+// rows of a parent table selected by their positions. values are read from the
+// columns of the parent, no data is copied until the view is materialized.
+// reading values, rows, sizes and columns works on the parent (columns are
+// read-only lists over the positions); changes and indexes copy the selected
+// rows into own columns first. the view fails if the rows or columns of the
+// parent are changed before it is materialized. values changed in the parent
+// (e.g. by Row.set, fillMissings or replaceValue) keep the positions valid and
+// are seen by the view until it is materialized.
+public class TableView extends Table {
+
+	private Table parent;
+
+	private int[] positions;
+
+	private boolean materialized = false;
+
+	// modifications of the parent when the view was created
+	private long modifications;
+
+	// read-only columns by column of the parent
+	private Map<AbstractColumn, AbstractColumn> viewColumns = new HashMap<AbstractColumn, AbstractColumn>();
+
+	public TableView(String name, Table parent, int[] positions) {
+		super(name);
+		rows = new ViewRows();
+		columns = new ViewColumns();
+		// views of views read from the root table
+		if (parent instanceof TableView && !((TableView) parent).materialized) {
+			TableView view = (TableView) parent;
+			view.checkParent();
+			int[] rootPositions = new int[positions.length];
+			for (int i = 0; i < positions.length; i++) {
+				rootPositions[i] = view.positions[positions[i]];
+			}
+			parent = view.parent;
+			positions = rootPositions;
+		}
+		this.parent = parent;
+		this.positions = positions;
+		modifications = parent.getModifications();
+	}
+
+	public Table getParent() {
+		return parent;
+	}
+
+	// positions of the rows in the parent
+	public int[] getPositions() {
+		return positions;
+	}
+
+	public int getSize() {
+		return getRows().getSize();
+	}
+
+	public boolean isMaterialized() {
+		return materialized;
+	}
+
+	// copies the selected rows into own columns
+	public void materialize() {
+
+		if (materialized) {
+			return;
+		}
+		checkParent();
+		materialized = true;
+		viewColumns.clear();
+
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < parent.getColumns().getSize(); i++) {
+			AbstractColumn source = parent.getColumn(i);
+			AbstractColumn column = source.cloneStructure();
+			for (int position : positions) {
+				column.add(source.get(position));
+			}
+			columns.append(column, null);
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log(this, "Materialized view with " + positions.length + " rows. Time: " + (end - start) + " ms");
+
+	}
+
+	@Override
+	public Object get(int index, String column) {
+		if (materialized) {
+			return super.get(index, column);
+		}
+		checkParent();
+		return parent.get(positions[index], column);
+	}
+
+	@Override
+	public Object get(int index, int column) {
+		if (materialized) {
+			return super.get(index, column);
+		}
+		checkParent();
+		return parent.get(positions[index], column);
+	}
+
+	@Override
+	public Row getRow(int index) {
+		return new Row(this, index);
+	}
+
+	@Override
+	public void forEachRow(IRowProcessor processor) {
+		if (materialized) {
+			super.forEachRow(processor);
+			return;
+		}
+		checkParent();
+		for (int i = 0; i < positions.length; i++) {
+			processor.process(new Row(this, i));
+		}
+	}
+
+	@Override
+	public int getMissings() {
+		materialize();
+		return super.getMissings();
+	}
+
+	@Override
+	public void fillMissings(Object value) {
+		materialize();
+		super.fillMissings(value);
+	}
+
+	@Override
+	public int getUniqueValues() {
+		materialize();
+		return super.getUniqueValues();
+	}
+
+	@Override
+	public void replaceValue(Object[] oldValues, Object[] newValues) {
+		materialize();
+		super.replaceValue(oldValues, newValues);
+	}
+
+	@Override
+	public void merge(Table table2, String columnTable1, String columnTable2) {
+		materialize();
+		super.merge(table2, columnTable1, columnTable2);
+	}
+
+	@Override
+	public Table cloneStructure(String name) {
+		if (materialized) {
+			return super.cloneStructure(name);
+		}
+		Table table = new Table(getName() + ":" + name);
+		for (int i = 0; i < parent.getColumns().getSize(); i++) {
+			table.getColumns().append(parent.getColumn(i).cloneStructure());
+		}
+		return table;
+	}
+
+	@Override
+	public TableIndex createIndex(String column) {
+		materialize();
+		return super.createIndex(column);
+	}
+
+	@Override
+	public MultiTableIndex createMultiIndex(String... columns) {
+		materialize();
+		return super.createMultiIndex(columns);
+	}
+
+	@Override
+	public SortedTableIndex createSortedIndex(String column) {
+		materialize();
+		return super.createSortedIndex(column);
+	}
+
+	@Override
+	public BitmapIndex createBitmapIndex(String column) {
+		materialize();
+		return super.createBitmapIndex(column);
+	}
+
+	@Override
+	public void addIndex(ITableIndex index) {
+		materialize();
+		super.addIndex(index);
+	}
+
+	@Override
+	public Table clone() {
+		materialize();
+		return super.clone();
+	}
+
+	@Override
+	public Table getSummary() {
+		materialize();
+		return super.getSummary();
+	}
+
+	@Override
+	public void detectTypes() {
+		materialize();
+		super.detectTypes();
+	}
+
+	@Override
+	public void clear() {
+		materialize();
+		super.clear();
+	}
+
+	@Override
+	protected void assertsNotEmpty() {
+		if (materialized) {
+			super.assertsNotEmpty();
+			return;
+		}
+		checkParent();
+		parent.assertsNotEmpty();
+	}
+
+	// positions are only valid as long as the rows of the parent are unchanged
+	private void checkParent() {
+		if (!materialized && parent.getModifications() != modifications) {
+			throw new TableException("Parent table of view '" + getName()
+					+ "' was changed. Materialize the view before changing the parent.");
+		}
+	}
+
+	// read-only column on the rows of the parent. changes materialize the view
+	// and are written to its own column.
+	private AbstractColumn getViewColumn(AbstractColumn source) {
+		AbstractColumn column = viewColumns.get(source);
+		if (column == null) {
+			column = source.wrap(new ViewValues(source));
+			viewColumns.put(source, column);
+		}
+		return column;
+	}
+
+	private class ViewValues extends AbstractList<Object> {
+
+		private AbstractColumn source;
+
+		private ViewValues(AbstractColumn source) {
+			this.source = source;
+		}
+
+		@Override
+		public Object get(int index) {
+			if (materialized) {
+				return columns.get(source.getName()).get(index);
+			}
+			checkParent();
+			return source.get(positions[index]);
+		}
+
+		@Override
+		public int size() {
+			return getSize();
+		}
+
+		@Override
+		public Object set(int index, Object value) {
+			materialize();
+			AbstractColumn column = columns.get(source.getName());
+			Object old = column.get(index);
+			column.set(index, value);
+			return old;
+		}
+
+		@Override
+		public void add(int index, Object value) {
+			materialize();
+			AbstractColumn column = columns.get(source.getName());
+			if (index != column.getSize()) {
+				throw new TableException("Values can only be appended to column '" + source.getName() + "' of view '"
+						+ getName() + "'.");
+			}
+			column.add(value);
+		}
+
+	}
+
+	// sizes and copies are read from the parent, changes materialize the view
+	private class ViewRows extends RowOperations {
+
+		private ViewRows() {
+			super(TableView.this);
+		}
+
+		@Override
+		public int getSize() {
+			if (materialized) {
+				return super.getSize();
+			}
+			checkParent();
+			return positions.length;
+		}
+
+		@Override
+		public Table copy(int[] positions, String name) {
+			if (materialized) {
+				return super.copy(positions, name);
+			}
+			checkParent();
+			Table result = cloneStructure(name);
+			for (int j = 0; j < parent.getColumns().getSize(); j++) {
+				AbstractColumn source = parent.getColumn(j);
+				AbstractColumn column = result.getColumn(j);
+				for (int position : positions) {
+					column.add(source.get(TableView.this.positions[position]));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Row append() {
+			materialize();
+			return super.append();
+		}
+
+		@Override
+		public void sortBy(String column, int order) {
+			materialize();
+			super.sortBy(column, order);
+		}
+
+		@Override
+		public void sortBy(SortKey... keys) {
+			materialize();
+			super.sortBy(keys);
+		}
+
+		@Override
+		public void drop(List<Boolean> bitmask) {
+			materialize();
+			super.drop(bitmask);
+		}
+
+		@Override
+		public void select(List<Boolean> bitmask) {
+			materialize();
+			super.select(bitmask);
+		}
+
+		@Override
+		public void select(int[] positions) {
+			materialize();
+			super.select(positions);
+		}
+
+	}
+
+	// names, types and read-only columns are served from the parent, changes
+	// materialize the view
+	private class ViewColumns extends ColumnOperations {
+
+		private ViewColumns() {
+			super(TableView.this);
+		}
+
+		@Override
+		public AbstractColumn get(String name) {
+			if (materialized) {
+				return super.get(name);
+			}
+			checkParent();
+			return getViewColumn(parent.getColumn(name));
+		}
+
+		@Override
+		public AbstractColumn get(int index) {
+			if (materialized) {
+				return super.get(index);
+			}
+			checkParent();
+			return getViewColumn(parent.getColumn(index));
+		}
+
+		@Override
+		public String[] getNames() {
+			if (materialized) {
+				return super.getNames();
+			}
+			checkParent();
+			return parent.getColumns().getNames();
+		}
+
+		@Override
+		public String[] getTypes() {
+			if (materialized) {
+				return super.getTypes();
+			}
+			checkParent();
+			return parent.getColumns().getTypes();
+		}
+
+		@Override
+		public int getSize() {
+			if (materialized) {
+				return super.getSize();
+			}
+			checkParent();
+			return parent.getColumns().getSize();
+		}
+
+		@Override
+		public void rename(String oldName, String newName) {
+			materialize();
+			super.rename(oldName, newName);
+		}
+
+		@Override
+		public AbstractColumn append(AbstractColumn column, IBuildValueFunction builder) {
+			materialize();
+			return super.append(column, builder);
+		}
+
+		@Override
+		public void setType(AbstractColumn column, ColumnType type) {
+			materialize();
+			super.setType(super.get(column.getName()), type);
+		}
+
+		@Override
+		public void drop(IColumnFilter filter) {
+			materialize();
+			super.drop(filter);
+		}
+
+		@Override
+		public void select(IColumnFilter filter) {
+			materialize();
+			super.select(filter);
+		}
+
+		@Override
+		public void clear() {
+			materialize();
+			super.clear();
+		}
+
+	}
+
+}
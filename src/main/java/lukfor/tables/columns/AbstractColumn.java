@@ -4,12 +4,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.function.IntConsumer;
 
 import lukfor.tables.exceptions.TableException;
+import lukfor.tables.utils.ParallelUtil;
 
 public abstract class AbstractColumn {
 
@@ -17,6 +20,12 @@ public abstract class AbstractColumn {
 
 	private String name;
 
+	// rows below this position are covered by an index
+	private int indexedRows = 0;
+
+	// changes of values in indexed rows, used to detect stale indexes
+	private long writes = 0;
+
 	public AbstractColumn(int initSize) {
 		storage = new Vector<Object>(initSize);
 	}
@@ -33,6 +42,7 @@ public abstract class AbstractColumn {
 	}
 
 	public void replaceDataFrom(AbstractColumn column) {
+		writes++;
 		for (int i = 0; i < column.getSize(); i++) {
 			Object object = column.get(i);
 			if (object != null) {
@@ -62,7 +72,19 @@ public abstract class AbstractColumn {
 
 	public abstract ColumnType getType();
 
+	// called by indexes for the rows they cover
+	public void setIndexed(int rows) {
+		indexedRows = rows;
+	}
+
+	public long getWrites() {
+		return writes;
+	}
+
 	public void set(int index, Object data) {
+		if (index < indexedRows) {
+			writes++;
+		}
 		if (isMissingValue(data)) {
 			storage.set(index, null);
 		} else {
@@ -131,6 +153,38 @@ public abstract class AbstractColumn {
 		newStorage.clear();
 	}
 
+	// column of the same type that stores its values in the list, e.g. to read
+	// rows of another column without copying them
+	public AbstractColumn wrap(List<Object> values) {
+		AbstractColumn column = cloneStructure();
+		column.storage = values;
+		return column;
+	}
+
+	// snapshot of all values. reading it avoids one synchronized call per value.
+	public Object[] toArray() {
+		return storage.toArray();
+	}
+
+	public void select(final int[] positions) {
+		final Object[] values = storage.toArray();
+		final Object[] newValues = new Object[positions.length];
+		final int chunks = ParallelUtil.DEFAULT.getChunks(positions.length);
+		ParallelUtil.DEFAULT.forEach(chunks, positions.length, new IntConsumer() {
+			public void accept(int chunk) {
+				int end = ParallelUtil.getStart(chunk + 1, chunks, positions.length);
+				for (int i = ParallelUtil.getStart(chunk, chunks, positions.length); i < end; i++) {
+					newValues[i] = values[positions[i]];
+				}
+			}
+		});
+		storage = new Vector<Object>(Arrays.asList(newValues));
+	}
+
+	public void sort(int[] positions) {
+		select(positions);
+	}
+
 	public void sort(List<Integer> indices) {
 		List<Object> newStorage = new Vector<Object>();
 		for (int i = 0; i < indices.size(); i++) {
@@ -151,6 +205,7 @@ public abstract class AbstractColumn {
 	}
 
 	public void fillMissings(Object value) {
+		writes++;
 		for (int i = 0; i < storage.size(); i++) {
 			if (storage.get(i) == null) {
 				storage.set(i, value);
@@ -159,6 +214,7 @@ public abstract class AbstractColumn {
 	}
 
 	public void apply(IApplyFunction function) {
+		writes++;
 		for (int i = 0; i < storage.size(); i++) {
 			Object value = storage.get(i);
 			Object newValue = function.apply(value);
@@ -175,6 +231,7 @@ public abstract class AbstractColumn {
 		if (oldValues.length != newValues.length) {
 			throw new TableException("Arrays 'oldValues' and 'newValues' have different length.");
 		}
+		writes++;
 
 		for (int i = 0; i < storage.size(); i++) {
 			Object value = storage.get(i);
@@ -232,6 +289,15 @@ public abstract class AbstractColumn {
 	public Object getSd() {
 		return null;
 	}
+
+	public Object getMedian() {
+		return getQuantile(0.5);
+	}
+
+	// exact quantile of all values, null for columns without numbers
+	public Object getQuantile(double p) {
+		return null;
+	}
 	
 	public String getSummary() {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -262,10 +328,10 @@ public abstract class AbstractColumn {
 		if (mean != null) {
 			out.println("  Mean.: " + mean);
 		}
-		/*
-		 * Object median = getMedian(); if (median != null) { out.println("  Median.: "
-		 * + median); }
-		 */
+		Object median = getMedian();
+		if (median != null) {
+			out.println("  Median.: " + median);
+		}
 		Object max = getMax();
 		if (max != null) {
 			out.println("  Max.: " + max);
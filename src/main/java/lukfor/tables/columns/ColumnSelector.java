@@ -0,0 +1,198 @@
+package lukfor.tables.columns;
+
+import java.util.Date;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.columns.types.DateColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.utils.ParallelUtil;
+
+// selects the first n rows of a sort without sorting all rows: every chunk of
+// rows is scanned with a bounded heap, the winners of all chunks are merged in
+// a last heap. rows with missing values are ignored, equal values keep their
+// order like in a stable sort.
+public class ColumnSelector {
+
+	private int[] positions;
+
+	public ColumnSelector(AbstractColumn column, int n, int order) {
+
+		if (n < 0) {
+			throw new TableException("Number of rows " + n + " is negative.");
+		}
+
+		final Object[] data = column.toArray();
+		final int size = data.length;
+		// heaps are never larger than the column
+		n = Math.min(n, size);
+		final int chunks = ParallelUtil.DEFAULT.getChunks(size);
+		final Heap[] heaps = new Heap[chunks];
+		for (int i = 0; i < chunks; i++) {
+			heaps[i] = new Heap(column, n, order);
+		}
+
+		ParallelUtil.DEFAULT.forEach(chunks, size, new IntConsumer() {
+			public void accept(int chunk) {
+				Heap heap = heaps[chunk];
+				int end = ParallelUtil.getStart(chunk + 1, chunks, size);
+				for (int i = ParallelUtil.getStart(chunk, chunks, size); i < end; i++) {
+					if (data[i] != null) {
+						heap.offer(i, data[i]);
+					}
+				}
+			}
+		});
+
+		Heap result = heaps[0];
+		for (int i = 1; i < chunks; i++) {
+			for (int row : heaps[i].getPositions()) {
+				result.offer(row, data[row]);
+			}
+		}
+		positions = result.getPositions();
+
+	}
+
+	// positions of the selected rows in sort order
+	public int[] getPositions() {
+		return positions;
+	}
+
+	// bounded heap with the worst kept row at the root. numeric values are kept
+	// as primitive keys that are larger for better rows.
+	private static class Heap {
+
+		private AbstractColumn column;
+
+		private int order;
+
+		private boolean numeric;
+
+		private long[] keys;
+
+		private Object[] values;
+
+		private int[] rows;
+
+		private int capacity;
+
+		private int size = 0;
+
+		private Heap(AbstractColumn column, int capacity, int order) {
+			this.column = column;
+			this.order = order;
+			this.capacity = capacity;
+			numeric = column instanceof IntegerColumn || column instanceof DoubleColumn
+					|| column instanceof DateColumn;
+			// one extra slot holds the candidate
+			rows = new int[capacity + 1];
+			if (numeric) {
+				keys = new long[capacity + 1];
+			} else {
+				values = new Object[capacity + 1];
+			}
+		}
+
+		private void offer(int row, Object value) {
+			if (capacity == 0) {
+				return;
+			}
+			int slot = size < capacity ? size : capacity;
+			rows[slot] = row;
+			if (numeric) {
+				keys[slot] = getKey(value);
+			} else {
+				values[slot] = value;
+			}
+			if (size < capacity) {
+				size++;
+				siftUp(slot);
+			} else if (compare(capacity, 0) > 0) {
+				move(capacity, 0);
+				siftDown(0, size);
+			}
+		}
+
+		private long getKey(Object value) {
+			long key;
+			if (value instanceof Integer) {
+				key = ((Integer) value) ^ Integer.MIN_VALUE;
+			} else if (value instanceof Double) {
+				key = ColumnSorter.encode((Double) value);
+			} else {
+				key = ((Date) value).getTime() ^ Long.MIN_VALUE;
+			}
+			return order == ColumnSorter.SORT_DESCEND ? key : ~key;
+		}
+
+		// > 0 if the row in slot i ranks before the row in slot j
+		private int compare(int i, int j) {
+			int compare;
+			if (numeric) {
+				compare = Long.compareUnsigned(keys[i], keys[j]);
+			} else {
+				compare = column.compare(values[i], values[j]) * -order;
+			}
+			return compare != 0 ? compare : Integer.compare(rows[j], rows[i]);
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (compare(parent, i) <= 0) {
+					return;
+				}
+				swap(parent, i);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i, int size) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					return;
+				}
+				if (child + 1 < size && compare(child + 1, child) < 0) {
+					child++;
+				}
+				if (compare(i, child) <= 0) {
+					return;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			move(i, capacity);
+			move(j, i);
+			move(capacity, j);
+		}
+
+		private void move(int from, int to) {
+			rows[to] = rows[from];
+			if (numeric) {
+				keys[to] = keys[from];
+			} else {
+				values[to] = values[from];
+			}
+		}
+
+		// empties the heap, the worst row is removed first
+		private int[] getPositions() {
+			int[] positions = new int[size];
+			for (int i = size - 1; i >= 0; i--) {
+				positions[i] = rows[0];
+				move(i, 0);
+				siftDown(0, i);
+			}
+			size = 0;
+			return positions;
+		}
+
+	}
+
+}
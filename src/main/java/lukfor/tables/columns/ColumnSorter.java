@@ -1,33 +1,532 @@
 package lukfor.tables.columns;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.columns.types.DateColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.columns.types.StringColumn;
+import lukfor.tables.utils.ParallelUtil;
 
 public class ColumnSorter {
 
 	public static final int SORT_ASCEND = 1;
-	
+
 	public static final int SORT_DESCEND = -1;
-	
-	private List<Integer> indices = new Vector<Integer>();
+
+	private AbstractColumn[] columns;
+
+	private SortKey[] keys;
+
+	private int order;
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	private int[] positions;
+
+	private List<Integer> indices;
 
 	public ColumnSorter(final AbstractColumn column, final int order) {
-		for (int i = 0; i < column.getSize(); i++) {
-			indices.add(i);
+		this.columns = new AbstractColumn[] { column };
+		this.order = order;
+	}
+
+	public ColumnSorter(AbstractColumn[] columns, SortKey[] keys) {
+		this.columns = columns;
+		this.keys = keys;
+	}
+
+	public ColumnSorter withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// rows are sorted on the first call
+	public int[] getPositions() {
+		if (positions == null) {
+			int[] rows = new int[columns[0].getSize()];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = i;
+			}
+			if (keys == null) {
+				positions = sort(columns[0], rows, order, parallel);
+			} else {
+				positions = sort(columns, keys, rows, parallel);
+			}
+		}
+		return positions;
+	}
+
+	public List<Integer> getIndices() {
+		if (indices == null) {
+			int[] positions = getPositions();
+			indices = new Vector<Integer>(positions.length);
+			for (int position : positions) {
+				indices.add(position);
+			}
+		}
+		return indices;
+	}
+
+	public static int[] sort(AbstractColumn column, int[] rows, int order) {
+		return sort(column, rows, order, ParallelUtil.DEFAULT);
+	}
+
+	// stable sort of the given rows. missing values are the smallest values.
+	public static int[] sort(AbstractColumn column, int[] rows, int order, ParallelUtil parallel) {
+
+		Object[] data = column.toArray();
+		int missings = 0;
+		for (int row : rows) {
+			if (data[row] == null) {
+				missings++;
+			}
+		}
+
+		int[] values = new int[rows.length - missings];
+		int[] nulls = new int[missings];
+		int n = 0;
+		int m = 0;
+		for (int row : rows) {
+			if (data[row] == null) {
+				nulls[m++] = row;
+			} else {
+				values[n++] = row;
+			}
+		}
+
+		int[] sorted;
+		if (column instanceof IntegerColumn) {
+			sorted = sortIntegers(data, values, order, parallel);
+		} else if (column instanceof DoubleColumn) {
+			sorted = sortDoubles(data, values, order, parallel);
+		} else if (column instanceof DateColumn) {
+			sorted = sortDates(data, values, order, parallel);
+		} else if (column instanceof StringColumn) {
+			sorted = sortByDictionary(column, data, values, order, parallel);
+		} else {
+			sorted = sortByComparator(column, values, order);
+		}
+
+		int[] result = new int[rows.length];
+		if (order == SORT_DESCEND) {
+			System.arraycopy(sorted, 0, result, 0, sorted.length);
+			System.arraycopy(nulls, 0, result, sorted.length, nulls.length);
+		} else {
+			System.arraycopy(nulls, 0, result, 0, nulls.length);
+			System.arraycopy(sorted, 0, result, nulls.length, sorted.length);
+		}
+		return result;
+
+	}
+
+	private static int[] sortIntegers(Object[] data, int[] rows, int order, ParallelUtil parallel) {
+		int[] keys = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			int key = ((Integer) data[rows[i]]) ^ Integer.MIN_VALUE;
+			keys[i] = order == SORT_DESCEND ? ~key : key;
+		}
+		return radixSort(keys, rows, parallel);
+	}
+
+	private static int[] sortDoubles(Object[] data, int[] rows, int order, ParallelUtil parallel) {
+		long[] keys = new long[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			long key = encode((Double) data[rows[i]]);
+			keys[i] = order == SORT_DESCEND ? ~key : key;
+		}
+		return radixSort(keys, rows, parallel);
+	}
+
+	private static int[] sortDates(Object[] data, int[] rows, int order, ParallelUtil parallel) {
+		long[] keys = new long[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			long key = ((Date) data[rows[i]]).getTime() ^ Long.MIN_VALUE;
+			keys[i] = order == SORT_DESCEND ? ~key : key;
+		}
+		return radixSort(keys, rows, parallel);
+	}
+
+	private static int[] sortByDictionary(AbstractColumn column, Object[] data, int[] rows, int order,
+			ParallelUtil parallel) {
+		int[] keys = rank(column, data, rows);
+		if (order == SORT_DESCEND) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = ~keys[i];
+			}
+		}
+		return radixSort(keys, rows, parallel);
+	}
+
+	// replaces each value by the rank of its value in the sorted dictionary of all
+	// distinct values. missing values get rank 0.
+	private static int[] rank(final AbstractColumn column, Object[] data, int[] rows) {
+
+		Map<Object, Integer> dictionary = new HashMap<Object, Integer>();
+		int[] codes = new int[rows.length];
+		final List<Object> values = new Vector<Object>();
+		for (int i = 0; i < rows.length; i++) {
+			Object value = data[rows[i]];
+			if (value == null) {
+				codes[i] = -1;
+				continue;
+			}
+			Integer code = dictionary.get(value);
+			if (code == null) {
+				code = values.size();
+				dictionary.put(value, code);
+				values.add(value);
+			}
+			codes[i] = code;
 		}
 
-		indices.sort(new Comparator<Integer>() {
+		Integer[] dictionaryOrder = new Integer[values.size()];
+		for (int i = 0; i < dictionaryOrder.length; i++) {
+			dictionaryOrder[i] = i;
+		}
+		Arrays.sort(dictionaryOrder, new Comparator<Integer>() {
+			public int compare(Integer code1, Integer code2) {
+				return column.compare(values.get(code1), values.get(code2));
+			}
+		});
+		int[] ranks = new int[dictionaryOrder.length];
+		for (int i = 0; i < dictionaryOrder.length; i++) {
+			ranks[dictionaryOrder[i]] = i;
+		}
+
+		int[] keys = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			keys[i] = codes[i] == -1 ? 0 : ranks[codes[i]];
+		}
+		return keys;
+
+	}
+
+	// stable sort by several keys. each row is encoded into a fixed-width key that
+	// compares bytewise (unsigned) in the requested order, so comparing two rows
+	// never needs the columns. the keys are sorted with one radix pass per byte.
+	public static int[] sort(AbstractColumn[] columns, SortKey[] keys, int[] rows) {
+		return sort(columns, keys, rows, ParallelUtil.DEFAULT);
+	}
+
+	public static int[] sort(final AbstractColumn[] columns, final SortKey[] keys, final int[] rows,
+			ParallelUtil parallel) {
+
+		final int[] offsets = new int[columns.length + 1];
+		for (int i = 0; i < columns.length; i++) {
+			offsets[i + 1] = offsets[i] + 1 + getKeyWidth(columns[i]);
+		}
+		final int width = offsets[columns.length];
+
+		// keys write disjoint bytes of the arena and are encoded concurrently
+		final byte[] arena = new byte[rows.length * width];
+		parallel.forEach(columns.length, (long) columns.length * rows.length, new IntConsumer() {
+			public void accept(int i) {
+				encode(columns[i], keys[i], rows, arena, width, offsets[i]);
+			}
+		});
+
+		if (width <= 8) {
+			long[] packed = new long[rows.length];
+			for (int i = 0; i < rows.length; i++) {
+				long key = 0;
+				for (int j = 0; j < width; j++) {
+					key = (key << 8) | (arena[i * width + j] & 0xFF);
+				}
+				packed[i] = key;
+			}
+			return radixSort(packed, rows.clone(), 64, parallel);
+		}
+
+		return radixSort(arena, width, rows, parallel);
+
+	}
+
+	private static int getKeyWidth(AbstractColumn column) {
+		if (column instanceof DoubleColumn || column instanceof DateColumn) {
+			return 8;
+		}
+		// integers and dictionary ranks
+		return 4;
+	}
+
+	// writes a null flag byte followed by the big-endian value bytes
+	private static void encode(AbstractColumn column, SortKey key, int[] rows, byte[] arena, int width, int offset) {
+
+		boolean integers = column instanceof IntegerColumn;
+		boolean doubles = column instanceof DoubleColumn;
+		boolean dates = column instanceof DateColumn;
+		Object[] data = column.toArray();
+		int[] ranks = null;
+		if (!integers && !doubles && !dates) {
+			ranks = rank(column, data, rows);
+		}
+
+		int valueWidth = getKeyWidth(column);
+		boolean descending = key.getOrder() == SORT_DESCEND;
+
+		for (int i = 0; i < rows.length; i++) {
+			int position = i * width + offset;
+			Object value = data[rows[i]];
+			if (value == null) {
+				arena[position] = (byte) (key.isNullsFirst() ? 0 : 2);
+				continue;
+			}
+			arena[position] = 1;
+			long bits;
+			if (integers) {
+				bits = ((Integer) value) ^ Integer.MIN_VALUE;
+			} else if (doubles) {
+				bits = encode((Double) value);
+			} else if (dates) {
+				bits = ((Date) value).getTime() ^ Long.MIN_VALUE;
+			} else {
+				bits = ranks[i];
+			}
+			if (descending) {
+				bits = ~bits;
+			}
+			for (int j = 0; j < valueWidth; j++) {
+				arena[position + 1 + j] = (byte) (bits >>> ((valueWidth - 1 - j) * 8));
+			}
+		}
+
+	}
+
+	// stable lsd radix sort of rows by fixed-width byte keys, one pass per byte.
+	// large inputs are split into chunks that are counted and scattered
+	// concurrently.
+	private static int[] radixSort(final byte[] arena, final int width, int[] rows, ParallelUtil parallel) {
+
+		final int n = rows.length;
+		final int chunks = parallel.getChunks(n);
+		final int[][] counts = new int[chunks][256];
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		int[] buffer = new int[n];
+
+		for (int j = width - 1; j >= 0; j--) {
+
+			final int digit = j;
+			final int[] source = order;
+			final int[] target = buffer;
+
+			parallel.forEach(chunks, n, new IntConsumer() {
+				public void accept(int chunk) {
+					int[] chunkCounts = counts[chunk];
+					Arrays.fill(chunkCounts, 0);
+					int end = ParallelUtil.getStart(chunk + 1, chunks, n);
+					for (int i = ParallelUtil.getStart(chunk, chunks, n); i < end; i++) {
+						chunkCounts[arena[source[i] * width + digit] & 0xFF]++;
+					}
+				}
+			});
+			if (!toOffsets(counts, n)) {
+				continue;
+			}
+			parallel.forEach(chunks, n, new IntConsumer() {
+				public void accept(int chunk) {
+					int[] chunkCounts = counts[chunk];
+					int end = ParallelUtil.getStart(chunk + 1, chunks, n);
+					for (int i = ParallelUtil.getStart(chunk, chunks, n); i < end; i++) {
+						int entry = source[i];
+						target[chunkCounts[arena[entry * width + digit] & 0xFF]++] = entry;
+					}
+				}
+			});
+
+			order = target;
+			buffer = source;
+
+		}
+
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = rows[order[i]];
+		}
+		return result;
+
+	}
+
+	private static int[] sortByComparator(final AbstractColumn column, int[] rows, final int order) {
+		Integer[] indices = new Integer[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			indices[i] = rows[i];
+		}
+		Arrays.sort(indices, new Comparator<Integer>() {
 			public int compare(Integer index1, Integer index2) {
 				Object value1 = column.get(index1);
 				Object value2 = column.get(index2);
 				return column.compare(value1, value2) * order;
 			}
 		});
+		int[] result = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			result[i] = indices[i];
+		}
+		return result;
+	}
 
+	// maps a double to a long with the same unsigned order
+	public static long encode(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
 	}
 
-	public List<Integer> getIndices() {
-		return indices;
+	// stable lsd radix sort of rows by unsigned int keys, 8 bits per pass. both
+	// arrays are used as buffers.
+	public static int[] radixSort(int[] keys, int[] rows) {
+		return radixSort(keys, rows, ParallelUtil.DEFAULT);
 	}
+
+	public static int[] radixSort(int[] keys, int[] rows, ParallelUtil parallel) {
+
+		int n = keys.length;
+		if (parallel.getChunks(n) > 1) {
+			long[] wideKeys = new long[n];
+			for (int i = 0; i < n; i++) {
+				wideKeys[i] = keys[i] & 0xFFFFFFFFL;
+			}
+			return radixSort(wideKeys, rows, 32, parallel);
+		}
+
+		int[] keysBuffer = new int[n];
+		int[] rowsBuffer = new int[n];
+		int[] counts = new int[257];
+
+		for (int shift = 0; shift < 32; shift += 8) {
+
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++) {
+				counts[((keys[i] >>> shift) & 0xFF) + 1]++;
+			}
+			if (isSingleBucket(counts, n)) {
+				continue;
+			}
+			for (int i = 0; i < 256; i++) {
+				counts[i + 1] += counts[i];
+			}
+			for (int i = 0; i < n; i++) {
+				int bucket = counts[(keys[i] >>> shift) & 0xFF]++;
+				keysBuffer[bucket] = keys[i];
+				rowsBuffer[bucket] = rows[i];
+			}
+
+			int[] tmp = keys;
+			keys = keysBuffer;
+			keysBuffer = tmp;
+			tmp = rows;
+			rows = rowsBuffer;
+			rowsBuffer = tmp;
+
+		}
+		return rows;
+
+	}
+
+	// stable lsd radix sort of rows by unsigned long keys, 8 bits per pass. both
+	// arrays are used as buffers.
+	public static int[] radixSort(long[] keys, int[] rows) {
+		return radixSort(keys, rows, 64, ParallelUtil.DEFAULT);
+	}
+
+	public static int[] radixSort(long[] keys, int[] rows, ParallelUtil parallel) {
+		return radixSort(keys, rows, 64, parallel);
+	}
+
+	// sorts by the lowest bits of the keys. large inputs are split into chunks
+	// that are counted and scattered concurrently, every chunk writes to its own
+	// range of each bucket and the sort stays stable.
+	private static int[] radixSort(long[] keys, int[] rows, int bits, ParallelUtil parallel) {
+
+		final int n = keys.length;
+		final int chunks = parallel.getChunks(n);
+		final int[][] counts = new int[chunks][256];
+		long[] keysBuffer = new long[n];
+		int[] rowsBuffer = new int[n];
+
+		for (int shift = 0; shift < bits; shift += 8) {
+
+			final int digit = shift;
+			final long[] sourceKeys = keys;
+			final int[] sourceRows = rows;
+			final long[] targetKeys = keysBuffer;
+			final int[] targetRows = rowsBuffer;
+
+			parallel.forEach(chunks, n, new IntConsumer() {
+				public void accept(int chunk) {
+					int[] chunkCounts = counts[chunk];
+					Arrays.fill(chunkCounts, 0);
+					int end = ParallelUtil.getStart(chunk + 1, chunks, n);
+					for (int i = ParallelUtil.getStart(chunk, chunks, n); i < end; i++) {
+						chunkCounts[(int) ((sourceKeys[i] >>> digit) & 0xFF)]++;
+					}
+				}
+			});
+			if (!toOffsets(counts, n)) {
+				continue;
+			}
+			parallel.forEach(chunks, n, new IntConsumer() {
+				public void accept(int chunk) {
+					int[] chunkCounts = counts[chunk];
+					int end = ParallelUtil.getStart(chunk + 1, chunks, n);
+					for (int i = ParallelUtil.getStart(chunk, chunks, n); i < end; i++) {
+						int bucket = chunkCounts[(int) ((sourceKeys[i] >>> digit) & 0xFF)]++;
+						targetKeys[bucket] = sourceKeys[i];
+						targetRows[bucket] = sourceRows[i];
+					}
+				}
+			});
+
+			keys = targetKeys;
+			keysBuffer = sourceKeys;
+			rows = targetRows;
+			rowsBuffer = sourceRows;
+
+		}
+		return rows;
+
+	}
+
+	// turns the bucket counts of all chunks into the start position of each
+	// chunk in each bucket. returns false if all keys have the same digit and the
+	// pass can be skipped.
+	private static boolean toOffsets(int[][] counts, int n) {
+		int position = 0;
+		for (int bucket = 0; bucket < 256; bucket++) {
+			int start = position;
+			for (int[] chunkCounts : counts) {
+				int count = chunkCounts[bucket];
+				chunkCounts[bucket] = position;
+				position += count;
+			}
+			if (position - start == n) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// all keys have the same digit: pass can be skipped
+	private static boolean isSingleBucket(int[] counts, int n) {
+		for (int i = 1; i <= 256; i++) {
+			if (counts[i] == n) {
+				return true;
+			}
+			if (counts[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,342 @@
+package lukfor.tables.columns;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.utils.ParallelUtil;
+
+// counts the values of a numeric column in bins. bin i holds the values in
+// [edges[i], edges[i + 1]), the last bin of explicit edges also holds its upper
+// edge. values are counted in one pass into primitive counters, large columns in
+// parallel chunks whose counters are added up afterwards. infinite values and
+// NaN are not binned and counted as outside.
+public class Histogram {
+
+	// default limit for the number of bins of fixed width
+	public static final int MAX_BINS = 1 << 24;
+
+	private double[] edges;
+
+	private long[] counts;
+
+	private long missings = 0;
+
+	private long outside = 0;
+
+	// bin edges are integers of an integer column
+	private boolean integers;
+
+	private ParallelUtil parallel;
+
+	private Histogram(double[] edges, boolean integers, ParallelUtil parallel) {
+		this.edges = edges;
+		this.integers = integers;
+		this.parallel = parallel;
+		counts = new long[Math.max(edges.length - 1, 0)];
+	}
+
+	// histograms with the default settings, see HistogramBuilder
+	public static Histogram fixed(AbstractColumn column, double binSize) {
+		return new HistogramBuilder().fixed(column, binSize);
+	}
+
+	public static Histogram[] fixed(Table table, double binSize, String... columns) {
+		return new HistogramBuilder().fixed(table, binSize, columns);
+	}
+
+	public static Histogram edges(AbstractColumn column, double... edges) {
+		return new HistogramBuilder().edges(column, edges);
+	}
+
+	public static Histogram quantiles(AbstractColumn column, int bins) {
+		return new HistogramBuilder().quantiles(column, bins);
+	}
+
+	// bins of the same width, aligned to multiples of the width like binBy
+	static Histogram fixed(AbstractColumn column, double binSize, int maxBins, ParallelUtil parallel) {
+
+		if (!(binSize > 0)) {
+			throw new TableException("Bin size " + binSize + " is not positive.");
+		}
+
+		final Object[] data = toNumbers(column);
+		double[] range = getRange(data, parallel);
+		if (range == null) {
+			return empty(data, parallel);
+		}
+
+		long first = (long) Math.floor(range[0] / binSize);
+		long last = (long) Math.floor(range[1] / binSize);
+		if (last - first + 1 > maxBins) {
+			throw new TableException("Histogram has more than " + maxBins + " bins. Use a larger bin size.");
+		}
+		int bins = (int) (last - first + 1);
+		double[] edges = new double[bins + 1];
+		for (int i = 0; i <= bins; i++) {
+			edges[i] = (first + i) * binSize;
+		}
+
+		Histogram histogram = new Histogram(edges, column instanceof IntegerColumn && binSize == Math.rint(binSize),
+				parallel);
+		histogram.countFixed(data, first, binSize);
+		return histogram;
+
+	}
+
+	// histograms of several columns with the same bin size, columns are counted in
+	// parallel
+	static Histogram[] fixed(Table table, final double binSize, final int maxBins, final ParallelUtil parallel,
+			String... columns) {
+		final AbstractColumn[] sources = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			sources[i] = table.getColumn(columns[i]);
+		}
+		final Histogram[] histograms = new Histogram[columns.length];
+		parallel.forEach(columns.length, (long) columns.length * table.getRows().getSize(), new IntConsumer() {
+			public void accept(int i) {
+				histograms[i] = fixed(sources[i], binSize, maxBins, parallel);
+			}
+		});
+		return histograms;
+	}
+
+	// bins between strictly increasing edges, values outside are not counted
+	static Histogram edges(AbstractColumn column, double[] edges, ParallelUtil parallel) {
+
+		if (edges.length < 2) {
+			throw new TableException("A histogram needs at least two edges.");
+		}
+		for (int i = 1; i < edges.length; i++) {
+			if (!(edges[i] > edges[i - 1])) {
+				throw new TableException("Edges are not strictly increasing at " + edges[i] + ".");
+			}
+		}
+
+		Object[] data = toNumbers(column);
+		Histogram histogram = new Histogram(edges.clone(), false, parallel);
+		histogram.countEdges(data);
+		return histogram;
+
+	}
+
+	// bins with about the same number of values, edges are exact quantiles.
+	// ties can merge bins.
+	static Histogram quantiles(AbstractColumn column, int bins, ParallelUtil parallel) {
+
+		if (bins < 1) {
+			throw new TableException("A histogram needs at least one bin.");
+		}
+
+		Object[] data = toNumbers(column);
+		double[] values = new double[data.length];
+		int size = 0;
+		for (Object value : data) {
+			if (value != null && Double.isFinite(((Number) value).doubleValue())) {
+				values[size++] = ((Number) value).doubleValue();
+			}
+		}
+		if (size == 0) {
+			return empty(data, parallel);
+		}
+		Arrays.sort(values, 0, size);
+
+		double[] edges = new double[bins + 1];
+		int distinct = 0;
+		for (int i = 0; i <= bins; i++) {
+			double h = (size - 1) * (double) i / bins;
+			int k = (int) Math.floor(h);
+			double edge = k + 1 < size ? values[k] + (h - k) * (values[k + 1] - values[k]) : values[k];
+			if (distinct == 0 || edge > edges[distinct - 1]) {
+				edges[distinct++] = edge;
+			}
+		}
+		if (distinct == 1) {
+			// all values are equal
+			edges[distinct++] = Math.nextUp(edges[0]);
+		}
+
+		Histogram histogram = new Histogram(Arrays.copyOf(edges, distinct), false, parallel);
+		histogram.countEdges(data);
+		return histogram;
+
+	}
+
+	public int getBins() {
+		return counts.length;
+	}
+
+	public double[] getEdges() {
+		return edges;
+	}
+
+	public long[] getCounts() {
+		return counts;
+	}
+
+	public long getMissings() {
+		return missings;
+	}
+
+	// values outside of the edges
+	public long getOutside() {
+		return outside;
+	}
+
+	// lower edge and count of all bins with values
+	public Table toTable(String column) {
+		Table table = new Table(column + ":hist");
+		AbstractColumn edgeColumn = table.getColumns()
+				.append(integers ? new IntegerColumn(column) : new DoubleColumn(column));
+		AbstractColumn countColumn = table.getColumns().append(new IntegerColumn("count"));
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				edgeColumn.add(integers ? (Object) (int) edges[i] : (Object) edges[i]);
+				countColumn.add((int) counts[i]);
+			}
+		}
+		return table;
+	}
+
+	private static Object[] toNumbers(AbstractColumn column) {
+		if (!(column instanceof IntegerColumn || column instanceof DoubleColumn)) {
+			throw new TableException("Column '" + column.getName() + "' is not numeric.");
+		}
+		return column.toArray();
+	}
+
+	// no bins, all values are missing or not finite
+	private static Histogram empty(Object[] data, ParallelUtil parallel) {
+		Histogram histogram = new Histogram(new double[0], false, parallel);
+		for (Object value : data) {
+			if (value == null) {
+				histogram.missings++;
+			} else {
+				histogram.outside++;
+			}
+		}
+		return histogram;
+	}
+
+	// min and max of all finite values, null if there are none
+	private static double[] getRange(final Object[] data, ParallelUtil parallel) {
+		final int chunks = parallel.getChunks(data.length);
+		final double[] mins = new double[chunks];
+		final double[] maxs = new double[chunks];
+		parallel.forEach(chunks, data.length, new IntConsumer() {
+			public void accept(int chunk) {
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				int end = ParallelUtil.getStart(chunk + 1, chunks, data.length);
+				for (int i = ParallelUtil.getStart(chunk, chunks, data.length); i < end; i++) {
+					if (data[i] != null) {
+						double value = ((Number) data[i]).doubleValue();
+						if (!Double.isFinite(value)) {
+							continue;
+						}
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					}
+				}
+				mins[chunk] = min;
+				maxs[chunk] = max;
+			}
+		});
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < chunks; i++) {
+			min = Math.min(min, mins[i]);
+			max = Math.max(max, maxs[i]);
+		}
+		return min <= max ? new double[] { min, max } : null;
+	}
+
+	private void countFixed(final Object[] data, final long first, final double binSize) {
+		final int bins = counts.length;
+		count(data, new Kernel() {
+			public void count(int from, int to, long[] counts, long[] other) {
+				for (int i = from; i < to; i++) {
+					if (data[i] == null) {
+						other[0]++;
+					} else {
+						double value = ((Number) data[i]).doubleValue();
+						if (!Double.isFinite(value)) {
+							other[1]++;
+							continue;
+						}
+						int bin = (int) ((long) Math.floor(value / binSize) - first);
+						counts[Math.min(Math.max(bin, 0), bins - 1)]++;
+					}
+				}
+			}
+		});
+	}
+
+	private void countEdges(final Object[] data) {
+		final double[] edges = this.edges;
+		final int bins = counts.length;
+		count(data, new Kernel() {
+			public void count(int from, int to, long[] counts, long[] other) {
+				for (int i = from; i < to; i++) {
+					if (data[i] == null) {
+						other[0]++;
+						continue;
+					}
+					double value = ((Number) data[i]).doubleValue();
+					int index = Arrays.binarySearch(edges, value);
+					int bin = index >= 0 ? Math.min(index, bins - 1) : -index - 2;
+					if (bin >= 0 && bin < bins) {
+						counts[bin]++;
+					} else {
+						other[1]++;
+					}
+				}
+			}
+		});
+	}
+
+	// runs the kernel on chunks with own counters and adds them up
+	private void count(final Object[] data, final Kernel kernel) {
+
+		long start = System.currentTimeMillis();
+
+		final int chunks = parallel.getChunks(data.length);
+		final long[][] partials = new long[chunks][];
+		final long[][] others = new long[chunks][2];
+		partials[0] = counts;
+		parallel.forEach(chunks, data.length, new IntConsumer() {
+			public void accept(int chunk) {
+				if (partials[chunk] == null) {
+					partials[chunk] = new long[counts.length];
+				}
+				kernel.count(ParallelUtil.getStart(chunk, chunks, data.length),
+						ParallelUtil.getStart(chunk + 1, chunks, data.length), partials[chunk], others[chunk]);
+			}
+		});
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			if (chunk > 0) {
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] += partials[chunk][i];
+				}
+			}
+			missings += others[chunk][0];
+			outside += others[chunk][1];
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log("Counted " + data.length + " values in " + counts.length + " bins. Time: " + (end - start) + " ms");
+
+	}
+
+	// counts the values of [from, to), other[0] missing and other[1] outside
+	private interface Kernel {
+
+		public void count(int from, int to, long[] counts, long[] other);
+
+	}
+
+}
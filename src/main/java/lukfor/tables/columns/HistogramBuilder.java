@@ -0,0 +1,45 @@
+package lukfor.tables.columns;
+
+import lukfor.tables.Table;
+import lukfor.tables.utils.ParallelUtil;
+
+// settings for histograms, e.g. new HistogramBuilder().withParallel(...).fixed(column, 10)
+public class HistogramBuilder {
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	private int maxBins = Histogram.MAX_BINS;
+
+	public HistogramBuilder withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// fixed bins fail if the range of the values needs more bins
+	public HistogramBuilder withMaxBins(int maxBins) {
+		this.maxBins = maxBins;
+		return this;
+	}
+
+	// bins of the same width, aligned to multiples of the width like binBy
+	public Histogram fixed(AbstractColumn column, double binSize) {
+		return Histogram.fixed(column, binSize, maxBins, parallel);
+	}
+
+	// histograms of several columns with the same bin size, columns are counted in
+	// parallel
+	public Histogram[] fixed(Table table, double binSize, String... columns) {
+		return Histogram.fixed(table, binSize, maxBins, parallel, columns);
+	}
+
+	// bins between strictly increasing edges, values outside are not counted
+	public Histogram edges(AbstractColumn column, double... edges) {
+		return Histogram.edges(column, edges, parallel);
+	}
+
+	// bins with about the same number of values, edges are exact quantiles
+	public Histogram quantiles(AbstractColumn column, int bins) {
+		return Histogram.quantiles(column, bins, parallel);
+	}
+
+}
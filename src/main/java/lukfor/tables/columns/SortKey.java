@@ -0,0 +1,60 @@
+package lukfor.tables.columns;
+
+public class SortKey {
+
+	private String column;
+
+	private int order;
+
+	private boolean nullsFirst;
+
+	public SortKey(String column) {
+		this(column, ColumnSorter.SORT_ASCEND);
+	}
+
+	// missing values are first in ascending and last in descending order
+	public SortKey(String column, int order) {
+		this(column, order, order != ColumnSorter.SORT_DESCEND);
+	}
+
+	public SortKey(String column, int order, boolean nullsFirst) {
+		this.column = column;
+		this.order = order;
+		this.nullsFirst = nullsFirst;
+	}
+
+	public static SortKey asc(String column) {
+		return new SortKey(column, ColumnSorter.SORT_ASCEND);
+	}
+
+	public static SortKey desc(String column) {
+		return new SortKey(column, ColumnSorter.SORT_DESCEND);
+	}
+
+	public SortKey nullsFirst() {
+		return new SortKey(column, order, true);
+	}
+
+	public SortKey nullsLast() {
+		return new SortKey(column, order, false);
+	}
+
+	public String getColumn() {
+		return column;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public boolean isNullsFirst() {
+		return nullsFirst;
+	}
+
+	@Override
+	public String toString() {
+		return column + (order == ColumnSorter.SORT_DESCEND ? " DESC" : " ASC")
+				+ (nullsFirst ? " NULLS FIRST" : " NULLS LAST");
+	}
+
+}
@@ -5,6 +5,7 @@ import java.util.Locale;
 
 import lukfor.tables.columns.AbstractColumn;
 import lukfor.tables.columns.ColumnType;
+import lukfor.tables.utils.QuantileUtil;
 
 public class DoubleColumn extends AbstractColumn {
 
@@ -59,11 +60,9 @@ public class DoubleColumn extends AbstractColumn {
 
 	@Override
 	public int compare(Object value1, Object value2) {
-		if (value1 == null) {
-			value1 = Double.MIN_VALUE;
-		}
-		if (value2 == null) {
-			value2 = Double.MIN_VALUE;
+		// missing values are smaller than all other values
+		if (value1 == null || value2 == null) {
+			return value1 == null ? (value2 == null ? 0 : -1) : 1;
 		}
 		return ((Double) value1).compareTo((Double) value2);
 	}
@@ -143,6 +142,18 @@ public class DoubleColumn extends AbstractColumn {
 		return Math.sqrt(sum / (double) count);
 	}
 
+	@Override
+	public Object getQuantile(double p) {
+		double[] values = new double[storage.size()];
+		int size = 0;
+		for (Object o : storage) {
+			if (o != null) {
+				values[size++] = (Double) o;
+			}
+		}
+		return size > 0 ? QuantileUtil.quantile(values, size, p) : null;
+	}
+
 	@Override
 	public AbstractColumn cloneStructure() {
 		return new DoubleColumn(getName());
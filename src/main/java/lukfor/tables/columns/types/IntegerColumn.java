@@ -2,6 +2,7 @@ package lukfor.tables.columns.types;
 
 import lukfor.tables.columns.AbstractColumn;
 import lukfor.tables.columns.ColumnType;
+import lukfor.tables.utils.QuantileUtil;
 
 public class IntegerColumn extends AbstractColumn {
 
@@ -46,11 +47,9 @@ public class IntegerColumn extends AbstractColumn {
 
 	@Override
 	public int compare(Object value1, Object value2) {
-		if (value1 == null) {
-			value1 = Integer.MIN_VALUE;
-		}
-		if (value2 == null) {
-			value2 = Integer.MIN_VALUE;
+		// missing values are smaller than all other values
+		if (value1 == null || value2 == null) {
+			return value1 == null ? (value2 == null ? 0 : -1) : 1;
 		}
 		return ((Integer) value1).compareTo((Integer) value2);
 	}
@@ -114,6 +113,18 @@ public class IntegerColumn extends AbstractColumn {
 		return max;
 	}
 
+	@Override
+	public Object getQuantile(double p) {
+		double[] values = new double[storage.size()];
+		int size = 0;
+		for (Object o : storage) {
+			if (o != null) {
+				values[size++] = (Integer) o;
+			}
+		}
+		return size > 0 ? QuantileUtil.quantile(values, size, p) : null;
+	}
+
 	@Override
 	public AbstractColumn cloneStructure() {
 		return new IntegerColumn(getName());
@@ -39,11 +39,9 @@ public class StringColumn extends AbstractColumn {
 
 	@Override
 	public int compare(Object value1, Object value2) {
-		if (value1 == null) {
-			value1 = "";
-		}
-		if (value2 == null) {
-			value2 = "";
+		// missing values are smaller than all other values
+		if (value1 == null || value2 == null) {
+			return value1 == null ? (value2 == null ? 0 : -1) : 1;
 		}
 		return value1.toString().compareTo(value2.toString());
 	}
@@ -0,0 +1,535 @@
+package lukfor.tables.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import genepi.io.table.reader.ITableReader;
+import genepi.io.table.writer.CsvTableWriter;
+import genepi.io.table.writer.ITableWriter;
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnFactory;
+import lukfor.tables.columns.ColumnType;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.IGroupAggregator;
+import lukfor.tables.rows.IRowProcessor;
+import lukfor.tables.rows.Row;
+import lukfor.tables.utils.HashAggregator;
+import lukfor.tables.utils.OpenHashTable;
+import lukfor.tables.utils.RowHashTable;
+
+// groups tables that do not fit into memory. the input is read in chunks and
+// every chunk is aggregated in memory, its partial aggregates are merged into
+// the groups of the previous chunks. only when the groups exceed the memory
+// budget, rows of keys that are not in memory yet are hash-partitioned into
+// temp files, so all rows of a spilled group end up in the same partition.
+// every partition is aggregated in the same way with another hash and the
+// results are concatenated. groups are ordered by partition.
+// the aggregator can be iterated once, temp files are deleted by close(), so
+// use try-with-resources when the iteration may be abandoned.
+public class ExternalAggregator implements Iterable<Table>, Closeable {
+
+	private String name;
+
+	private ITableReader reader;
+
+	private String[] keyColumns;
+
+	private IGroupAggregator[] aggregators = new IGroupAggregator[0];
+
+	private long memory = 256L * 1024 * 1024;
+
+	private File tempDirectory = null;
+
+	private int partitions = 64;
+
+	private boolean columnTypeDetection = true;
+
+	private String[] names;
+
+	private ColumnType[] types;
+
+	private int[] keys;
+
+	private List<Partition> pending;
+
+	private List<File> files = new Vector<File>();
+
+	// groups aggregated while reading the input
+	private Table table;
+
+	private boolean iterated = false;
+
+	private boolean closed = false;
+
+	public ExternalAggregator(String name, ITableReader reader, String... keyColumns) {
+		this.name = name;
+		this.reader = reader;
+		this.keyColumns = keyColumns;
+	}
+
+	public ExternalAggregator agg(IGroupAggregator... aggregators) {
+		this.aggregators = aggregators;
+		return this;
+	}
+
+	// approximate number of bytes used by the rows in memory
+	public ExternalAggregator withMemory(long memory) {
+		this.memory = memory;
+		return this;
+	}
+
+	public ExternalAggregator withTempDirectory(String tempDirectory) {
+		this.tempDirectory = new File(tempDirectory);
+		return this;
+	}
+
+	// number of temp files the input is split into
+	public ExternalAggregator withPartitions(int partitions) {
+		this.partitions = partitions;
+		return this;
+	}
+
+	// types are detected on the first chunk and used for all other chunks
+	public ExternalAggregator withColumnTypeDetection(boolean columnTypeDetection) {
+		this.columnTypeDetection = columnTypeDetection;
+		return this;
+	}
+
+	// number of partitions written to disk, 0 if the input fits into memory
+	public int getPartitions() throws IOException {
+		spill();
+		return pending.size();
+	}
+
+	// all groups in one table
+	public Table load() throws IOException {
+		Table result = null;
+		for (Table partition : this) {
+			if (result == null) {
+				result = partition;
+			} else {
+				result.append(partition);
+			}
+		}
+		close();
+		return result;
+	}
+
+	public void writeToCsv(String filename) throws IOException {
+		writeToCsv(filename, ',');
+	}
+
+	public void writeToCsv(String filename, char separator) throws IOException {
+		Table.log("Writing file " + filename + "...");
+		writeToTableWriter(new CsvTableWriter(filename, separator, false));
+	}
+
+	public void writeToTableWriter(final ITableWriter writer) throws IOException {
+
+		long start = System.currentTimeMillis();
+
+		int rows = 0;
+		boolean header = false;
+		for (final Table partition : this) {
+			if (!header) {
+				writer.setColumns(partition.getColumns().getNames());
+				header = true;
+			}
+			partition.forEachRow(new IRowProcessor() {
+				public void process(Row row) {
+					TableWriter.writeRow(partition, row, writer);
+				}
+			});
+			rows += partition.getRows().getSize();
+		}
+		writer.close();
+		close();
+
+		long end = System.currentTimeMillis();
+
+		Table.log("Wrote " + rows + " groups. Time: " + (end - start) + " ms");
+
+	}
+
+	// aggregated groups, one table per partition
+	@Override
+	public Iterator<Table> iterator() {
+		if (closed) {
+			throw new IllegalStateException("Aggregator is closed.");
+		}
+		if (iterated) {
+			throw new IllegalStateException("Aggregator can be iterated only once.");
+		}
+		iterated = true;
+		try {
+			spill();
+			return new PartitionIterator();
+		} catch (IOException e) {
+			throw new TableException("Aggregating partitions failed.", e);
+		}
+	}
+
+	// deletes all temp files, the aggregator can not be iterated afterwards
+	@Override
+	public void close() {
+		closed = true;
+		table = null;
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private void spill() throws IOException {
+
+		if (pending != null) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+
+		pending = new LinkedList<Partition>();
+		names = reader.getColumns();
+		keys = new int[keyColumns.length];
+		for (int i = 0; i < keyColumns.length; i++) {
+			keys[i] = indexOf(keyColumns[i]);
+		}
+
+		// the budget is split between the chunk and the groups
+		Pass pass = new Pass(0);
+		Table chunk = TableBuilder.fromTableReader(name, reader, names, memory / 2);
+		types = ExternalSorter.setTypes(chunk, names, types, columnTypeDetection);
+		long rows = 0;
+		while (true) {
+			pass.add(chunk);
+			rows += chunk.getRows().getSize();
+			chunk = TableBuilder.fromTableReader(name, reader, names, memory / 2);
+			if (chunk.getRows().getSize() == 0) {
+				break;
+			}
+			types = ExternalSorter.setTypes(chunk, names, types, columnTypeDetection);
+		}
+		reader.close();
+		table = pass.finish();
+
+		long end = System.currentTimeMillis();
+
+		Table.log("Aggregated " + rows + " rows into " + table.getRows().getSize() + " groups, spilled " + pass.spilled
+				+ " rows into " + pending.size() + " files. Time: " + (end - start) + " ms");
+
+	}
+
+	private int indexOf(String column) {
+		for (int j = 0; j < names.length; j++) {
+			if (names[j].equals(column)) {
+				return j;
+			}
+		}
+		throw new TableException("Column '" + column + "' not found.");
+	}
+
+	private Table createTable() {
+		Table chunk = new Table(name);
+		for (int j = 0; j < names.length; j++) {
+			chunk.getColumns().append(ColumnFactory.createColumn(names[j], types[j]));
+		}
+		return chunk;
+	}
+
+	private AbstractColumn[] getColumns(Table chunk) {
+		AbstractColumn[] columns = new AbstractColumn[names.length];
+		for (int j = 0; j < names.length; j++) {
+			columns[j] = chunk.getColumn(j);
+		}
+		return columns;
+	}
+
+	// reference and object header of a value, chars of a string
+	private static long getBytes(Object value) {
+		return value instanceof String ? 56 + 2L * ((String) value).length() : 32;
+	}
+
+	// loads a partition in chunks and aggregates it. keys that do not fit into
+	// memory are spilled into new partitions that are aggregated next.
+	private Table aggregate(Partition partition) throws IOException {
+
+		Pass pass = new Pass(partition.level + 1);
+		Table chunk = createTable();
+		AbstractColumn[] columns = getColumns(chunk);
+		Object[] row = new Object[names.length];
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(partition.file), 1 << 16))) {
+			long bytes = 0;
+			for (long i = 0; i < partition.rows; i++) {
+				for (int j = 0; j < names.length; j++) {
+					row[j] = ExternalSorter.readValue(in, types[j]);
+					bytes += getBytes(row[j]);
+				}
+				for (int j = 0; j < names.length; j++) {
+					columns[j].add(row[j]);
+				}
+				if (bytes > memory / 2) {
+					pass.add(chunk);
+					chunk = createTable();
+					columns = getColumns(chunk);
+					bytes = 0;
+				}
+			}
+		} finally {
+			partition.file.delete();
+		}
+		if (chunk.getRows().getSize() > 0) {
+			pass.add(chunk);
+		}
+		return pass.finish();
+
+	}
+
+	// aggregates chunks into groups held in memory. a pass admits new groups
+	// until their estimated size exceeds half of the budget (but at least one),
+	// so every level of partitions aggregates at least one group.
+	private class Pass {
+
+		private int level;
+
+		private Map<List<Object>, Integer> ids = new HashMap<List<Object>, Integer>();
+
+		// columns are appended empty, keys are added with the groups and values
+		// when the pass is finished
+		private Table result;
+
+		private AbstractColumn[] groupKeys;
+
+		private AbstractColumn[] values;
+
+		private int size = 0;
+
+		private int capacity = 0;
+
+		private long bytes = 0;
+
+		private long spilled = 0;
+
+		private Partitions output;
+
+		private Pass(int level) {
+			this.level = level;
+		}
+
+		private void add(Table chunk) throws IOException {
+
+			AbstractColumn[] columns = new AbstractColumn[keyColumns.length];
+			for (int i = 0; i < keyColumns.length; i++) {
+				columns[i] = chunk.getColumn(keyColumns[i]);
+			}
+			if (result == null) {
+				for (IGroupAggregator aggregator : aggregators) {
+					aggregator.init(chunk);
+				}
+				result = new Table(name + ":grouped");
+				groupKeys = new AbstractColumn[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					groupKeys[i] = result.getColumns().append(columns[i].cloneStructure());
+				}
+				values = new AbstractColumn[aggregators.length];
+				for (int i = 0; i < aggregators.length; i++) {
+					values[i] = result.getColumns().append(aggregators[i].createColumn());
+				}
+			}
+
+			IGroupAggregator[] partials = new IGroupAggregator[aggregators.length];
+			for (int i = 0; i < aggregators.length; i++) {
+				partials[i] = aggregators[i].createPartial();
+			}
+			int[] firstRows = new HashAggregator(chunk, keyColumns).aggregateGroups(partials);
+
+			// keys of this chunk that are written to partitions
+			RowHashTable spilledKeys = null;
+			for (int partialGroup = 0; partialGroup < firstRows.length; partialGroup++) {
+				Object[] values = new Object[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					values[i] = columns[i].get(firstRows[partialGroup]);
+				}
+				List<Object> key = Arrays.asList(values);
+				Integer group = ids.get(key);
+				if (group == null) {
+					if (size > 0 && bytes > memory / 2) {
+						if (spilledKeys == null) {
+							spilledKeys = new RowHashTable(columns, firstRows.length - partialGroup);
+						}
+						spilledKeys.addUnique(firstRows[partialGroup]);
+						continue;
+					}
+					group = add(key);
+				}
+				for (int i = 0; i < aggregators.length; i++) {
+					aggregators[i].merge(group, partials[i], partialGroup);
+				}
+			}
+
+			if (spilledKeys != null) {
+				if (output == null) {
+					output = new Partitions(level);
+				}
+				int rows = chunk.getRows().getSize();
+				Object[] row = new Object[names.length];
+				for (int i = 0; i < rows; i++) {
+					if (spilledKeys.find(i) != -1) {
+						for (int j = 0; j < names.length; j++) {
+							row[j] = chunk.get(i, j);
+						}
+						output.write(row);
+						spilled++;
+					}
+				}
+			}
+
+		}
+
+		private int add(List<Object> key) {
+			int group = size++;
+			ids.put(key, group);
+			for (int i = 0; i < groupKeys.length; i++) {
+				groupKeys[i].add(key.get(i));
+				bytes += getBytes(key.get(i));
+			}
+			// map entry and accumulators
+			bytes += 64 + 16 * aggregators.length;
+			if (size > capacity) {
+				capacity = Math.max(16, capacity * 2);
+				for (IGroupAggregator aggregator : aggregators) {
+					aggregator.ensureCapacity(capacity);
+				}
+			}
+			return group;
+		}
+
+		// one row per group, spilled partitions are aggregated next
+		private Table finish() throws IOException {
+			for (int group = 0; group < size; group++) {
+				for (int i = 0; i < aggregators.length; i++) {
+					values[i].add(aggregators[i].get(group));
+				}
+			}
+			if (output != null) {
+				pending.addAll(0, output.close());
+			}
+			return result;
+		}
+
+	}
+
+	private class Partition {
+
+		private File file;
+
+		private long rows;
+
+		private int level;
+
+	}
+
+	// temp files of one level, rows are assigned by the hash of their key
+	private class Partitions {
+
+		private int level;
+
+		private long seed;
+
+		private File[] files = new File[partitions];
+
+		private DataOutputStream[] outs = new DataOutputStream[partitions];
+
+		private long[] rows = new long[partitions];
+
+		private Partitions(int level) {
+			this.level = level;
+			seed = level * 0x9E3779B97F4A7C15L;
+		}
+
+		private void write(Object[] row) throws IOException {
+			long hash = 1;
+			for (int key : keys) {
+				hash = 31 * hash + (row[key] != null ? row[key].hashCode() : 0);
+			}
+			int partition = (int) ((OpenHashTable.mix(hash ^ seed) & Long.MAX_VALUE) % partitions);
+			if (outs[partition] == null) {
+				files[partition] = File.createTempFile("tables-group-", ".part", tempDirectory);
+				ExternalAggregator.this.files.add(files[partition]);
+				outs[partition] = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(files[partition]), 1 << 16));
+			}
+			for (int j = 0; j < names.length; j++) {
+				ExternalSorter.writeValue(outs[partition], types[j], row[j]);
+			}
+			rows[partition]++;
+		}
+
+		// closes all files, empty partitions are not created
+		private List<Partition> close() throws IOException {
+			List<Partition> result = new Vector<Partition>();
+			for (int i = 0; i < outs.length; i++) {
+				if (outs[i] != null) {
+					outs[i].close();
+					Partition partition = new Partition();
+					partition.file = files[i];
+					partition.rows = rows[i];
+					partition.level = level;
+					result.add(partition);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	private class PartitionIterator implements Iterator<Table> {
+
+		private Table next;
+
+		private PartitionIterator() {
+			next = table;
+			table = null;
+		}
+
+		private void advance() throws IOException {
+			next = pending.isEmpty() ? null : aggregate(pending.remove(0));
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Table next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Table result = next;
+			try {
+				advance();
+			} catch (IOException e) {
+				throw new TableException("Aggregating partitions failed.", e);
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,437 @@
+package lukfor.tables.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+import genepi.io.table.reader.ITableReader;
+import genepi.io.table.writer.CsvTableWriter;
+import genepi.io.table.writer.ITableWriter;
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnFactory;
+import lukfor.tables.columns.ColumnType;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.IRowProcessor;
+import lukfor.tables.rows.Row;
+
+// sorts tables that do not fit into memory: the input is read in chunks of
+// about the memory budget, every chunk is sorted and spilled to a temp file
+// (run) and all runs are merged while the result is written.
+public class ExternalSorter implements Iterable<Table>, Closeable {
+
+	private String name;
+
+	private ITableReader reader;
+
+	private SortKey[] keys;
+
+	private long memory = 256L * 1024 * 1024;
+
+	private File tempDirectory = null;
+
+	private int chunkSize = 100000;
+
+	private boolean columnTypeDetection = true;
+
+	private String[] names;
+
+	private ColumnType[] types;
+
+	private List<File> runs;
+
+	// sorted input that fits into memory
+	private Table table;
+
+	// runs of all iterators, closed with the sorter
+	private List<Run> open = new Vector<Run>();
+
+	private boolean closed = false;
+
+	public ExternalSorter(String name, ITableReader reader, SortKey... keys) {
+		this.name = name;
+		this.reader = reader;
+		this.keys = keys;
+	}
+
+	// approximate number of bytes used by the chunks in memory
+	public ExternalSorter withMemory(long memory) {
+		this.memory = memory;
+		return this;
+	}
+
+	public ExternalSorter withTempDirectory(String tempDirectory) {
+		this.tempDirectory = new File(tempDirectory);
+		return this;
+	}
+
+	// number of rows per table returned by the iterator
+	public ExternalSorter withChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	// types are detected on the first chunk and used for all other chunks
+	public ExternalSorter withColumnTypeDetection(boolean columnTypeDetection) {
+		this.columnTypeDetection = columnTypeDetection;
+		return this;
+	}
+
+	public int getRuns() throws IOException {
+		spill();
+		return runs.size();
+	}
+
+	public void writeToCsv(String filename) throws IOException {
+		writeToCsv(filename, ',');
+	}
+
+	public void writeToCsv(String filename, char separator) throws IOException {
+		Table.log("Writing file " + filename + "...");
+		writeToTableWriter(new CsvTableWriter(filename, separator, false));
+	}
+
+	public void writeToTableWriter(final ITableWriter writer) throws IOException {
+
+		long start = System.currentTimeMillis();
+
+		spill();
+		writer.setColumns(names);
+		int rows = 0;
+		for (final Table chunk : this) {
+			chunk.forEachRow(new IRowProcessor() {
+				public void process(Row row) {
+					TableWriter.writeRow(chunk, row, writer);
+				}
+			});
+			rows += chunk.getRows().getSize();
+		}
+		writer.close();
+		close();
+
+		long end = System.currentTimeMillis();
+
+		Table.log("Wrote " + rows + " sorted rows and " + names.length + " columns. Time: " + (end - start) + " ms");
+
+	}
+
+	// sorted rows in tables of chunkSize rows
+	@Override
+	public Iterator<Table> iterator() {
+		if (closed) {
+			throw new IllegalStateException("Sorter is closed.");
+		}
+		try {
+			spill();
+			return new ChunkIterator();
+		} catch (IOException e) {
+			throw new TableException("Merging sorted runs failed.", e);
+		}
+	}
+
+	// deletes all temp files, the sorter can not be iterated afterwards
+	@Override
+	public void close() {
+		closed = true;
+		table = null;
+		for (Run run : open) {
+			try {
+				run.in.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+		}
+		open.clear();
+		if (runs != null) {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	private void spill() throws IOException {
+
+		if (runs != null) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+
+		runs = new Vector<File>();
+		names = reader.getColumns();
+		int rows = 0;
+
+		while (true) {
+
+			// the first chunk is kept until the next one is read, the budget is
+			// split between them
+			Table chunk = TableBuilder.fromTableReader(name, reader, names, memory / 2);
+			int size = chunk.getRows().getSize();
+			if (size == 0) {
+				break;
+			}
+			rows += size;
+
+			setTypes(chunk);
+			chunk.getRows().sortBy(keys);
+
+			if (table != null) {
+				runs.add(writeRun(table));
+				table = null;
+			}
+			if (runs.isEmpty()) {
+				// not spilled if everything fits into memory
+				table = chunk;
+			} else {
+				runs.add(writeRun(chunk));
+			}
+
+		}
+		reader.close();
+
+		long end = System.currentTimeMillis();
+
+		Table.log("Sorted " + rows + " rows in " + Math.max(runs.size(), 1) + " runs. Time: " + (end - start) + " ms");
+
+	}
+
+	private void setTypes(Table chunk) {
+		types = setTypes(chunk, names, types, columnTypeDetection);
+	}
+
+	// detects the types on the first chunk and converts all other chunks to them
+	static ColumnType[] setTypes(Table chunk, String[] names, ColumnType[] types, boolean columnTypeDetection) {
+
+		if (types == null) {
+			if (columnTypeDetection) {
+				chunk.detectTypes();
+			}
+			types = new ColumnType[names.length];
+			for (int i = 0; i < names.length; i++) {
+				types[i] = chunk.getColumn(i).getType();
+			}
+			return types;
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			if (chunk.getColumn(i).getType() != types[i]) {
+				try {
+					chunk.getColumns().setType(chunk.getColumn(i), types[i]);
+				} catch (RuntimeException e) {
+					throw new TableException("Column '" + names[i] + "' has values that are not of type " + types[i]
+							+ " detected in the first chunk. Disable column type detection.", e);
+				}
+			}
+		}
+		return types;
+
+	}
+
+	// binary run format: for each row and column a flag byte (0 missing, 1
+	// present) followed by the value
+	private File writeRun(Table chunk) throws IOException {
+
+		File file = File.createTempFile("tables-sort-", ".run", tempDirectory);
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			int size = chunk.getRows().getSize();
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < names.length; j++) {
+					writeValue(out, types[j], chunk.get(i, j));
+				}
+			}
+		}
+
+		Table.log("Spilled " + chunk.getRows().getSize() + " rows to " + file.getAbsolutePath() + ".");
+		return file;
+
+	}
+
+	static void writeValue(DataOutputStream out, ColumnType type, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(1);
+		switch (type) {
+		case INTEGER:
+			out.writeInt((Integer) value);
+			break;
+		case DOUBLE:
+			out.writeDouble((Double) value);
+			break;
+		case DATE:
+			out.writeLong(((Date) value).getTime());
+			break;
+		default:
+			byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	static Object readValue(DataInputStream in, ColumnType type) throws IOException {
+		if (in.readByte() == 0) {
+			return null;
+		}
+		switch (type) {
+		case INTEGER:
+			return in.readInt();
+		case DOUBLE:
+			return in.readDouble();
+		case DATE:
+			return new Date(in.readLong());
+		default:
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private class Run implements Comparable<Run> {
+
+		private int index;
+
+		private DataInputStream in;
+
+		private Object[] row = new Object[names.length];
+
+		private AbstractColumn[] columns = new AbstractColumn[keys.length];
+
+		private int[] positions = new int[keys.length];
+
+		private Run(int index, File file) throws IOException {
+			this.index = index;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			for (int i = 0; i < keys.length; i++) {
+				for (int j = 0; j < names.length; j++) {
+					if (names[j].equals(keys[i].getColumn())) {
+						positions[i] = j;
+						columns[i] = ColumnFactory.createColumn(names[j], types[j]);
+					}
+				}
+			}
+		}
+
+		// false if the run has no more rows
+		private boolean next() throws IOException {
+			try {
+				row[0] = readValue(in, types[0]);
+			} catch (EOFException e) {
+				in.close();
+				return false;
+			}
+			for (int j = 1; j < names.length; j++) {
+				row[j] = readValue(in, types[j]);
+			}
+			return true;
+		}
+
+		// same order as sortBy, rows of earlier runs first if keys are equal
+		@Override
+		public int compareTo(Run other) {
+			for (int i = 0; i < keys.length; i++) {
+				Object value1 = row[positions[i]];
+				Object value2 = other.row[positions[i]];
+				int compare;
+				if (value1 == null || value2 == null) {
+					compare = value1 == value2 ? 0 : (value1 == null) == keys[i].isNullsFirst() ? -1 : 1;
+				} else {
+					compare = columns[i].compare(value1, value2) * keys[i].getOrder();
+				}
+				if (compare != 0) {
+					return compare;
+				}
+			}
+			return Integer.compare(index, other.index);
+		}
+
+	}
+
+	private class ChunkIterator implements Iterator<Table> {
+
+		private PriorityQueue<Run> queue = new PriorityQueue<Run>();
+
+		private int offset = 0;
+
+		private ChunkIterator() throws IOException {
+			for (int i = 0; i < runs.size(); i++) {
+				Run run = new Run(i, runs.get(i));
+				open.add(run);
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (table != null) {
+				return offset < table.getRows().getSize();
+			}
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Table next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			Table chunk = new Table(name);
+			for (int j = 0; j < names.length; j++) {
+				chunk.getColumns().append(ColumnFactory.createColumn(names[j], types[j]));
+			}
+
+			if (table != null) {
+				int end = Math.min(offset + chunkSize, table.getRows().getSize());
+				for (int i = offset; i < end; i++) {
+					chunk.getRows().append().set(getRow(table, i));
+				}
+				offset = end;
+				return chunk;
+			}
+
+			try {
+				while (!queue.isEmpty() && chunk.getRows().getSize() < chunkSize) {
+					Run run = queue.poll();
+					chunk.getRows().append().set(run.row);
+					if (run.next()) {
+						queue.add(run);
+					}
+				}
+			} catch (IOException e) {
+				throw new TableException("Merging sorted runs failed.", e);
+			}
+			return chunk;
+
+		}
+
+		private Object[] getRow(Table table, int index) {
+			Object[] row = new Object[names.length];
+			for (int j = 0; j < names.length; j++) {
+				row[j] = table.get(index, j);
+			}
+			return row;
+		}
+
+	}
+
+}
@@ -102,6 +102,30 @@ public class TableBuilder {
 		return table;
 	}
 
+	// reads rows into string columns until about maxBytes of values are loaded.
+	// the reader is not closed, the table is empty if the reader has no more rows.
+	public static Table fromTableReader(String name, ITableReader reader, String[] columns, long maxBytes)
+			throws IOException {
+
+		Table table = new Table(name);
+		for (String column : columns) {
+			table.getColumns().append(new StringColumn(column));
+		}
+
+		long bytes = 0;
+		while (bytes < maxBytes && reader.next()) {
+			for (int i = 0; i < columns.length; i++) {
+				AbstractColumn column = table.getColumns().get(i);
+				String value = reader.getString(column.getName());
+				column.add(column.valueToObject(value));
+				// reference, object header and chars of a string
+				bytes += 56 + (value != null ? 2L * value.length() : 0);
+			}
+		}
+
+		return table;
+	}
+
 	public static Table fromDatabase(Connection connection, String sql) throws SQLException, IOException {
 
 		long start = System.currentTimeMillis();
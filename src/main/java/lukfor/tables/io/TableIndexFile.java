@@ -0,0 +1,286 @@
+package lukfor.tables.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.rows.SortedTableIndex;
+import lukfor.tables.rows.TableIndex;
+import lukfor.tables.utils.OpenHashTable;
+import lukfor.tables.utils.RowHashTable;
+
+// binary index files: a header with a fingerprint of the source and of the key
+// column followed by the int arrays of a hash index (slots, hashes, rows) or a
+// sorted permutation. the arrays are memory mapped and copied in bulk, loading
+// avoids hashing or sorting the rows again. the header stores a fingerprint of
+// sampled values and a checksum of all values. only the fingerprint is checked
+// by default, the full checksum is verified on request (e.g. without a source
+// file).
+public class TableIndexFile {
+
+	public static final int MAGIC = 0x4d544958;
+
+	public static final int VERSION = 4;
+
+	// number of values in the fingerprint of the key column
+	public static final int SAMPLES = 1024;
+
+	public static final int TYPE_HASH = 1;
+
+	public static final int TYPE_SORTED = 2;
+
+	public static TableIndex loadIndex(Table table, String column, String filename, String source)
+			throws IOException {
+		return loadIndex(table, column, filename, source, false);
+	}
+
+	public static TableIndex loadIndex(Table table, String column, String filename, String source, boolean verify)
+			throws IOException {
+
+		TableIndex index = readIndex(table, column, filename, source, verify);
+		if (index == null) {
+			index = table.createIndex(column);
+			writeIndex(table, index, filename, source);
+		}
+		return index;
+
+	}
+
+	public static SortedTableIndex loadSortedIndex(Table table, String column, String filename, String source)
+			throws IOException {
+		return loadSortedIndex(table, column, filename, source, false);
+	}
+
+	public static SortedTableIndex loadSortedIndex(Table table, String column, String filename, String source,
+			boolean verify) throws IOException {
+
+		SortedTableIndex index = readSortedIndex(table, column, filename, source, verify);
+		if (index == null) {
+			index = table.createSortedIndex(column);
+			writeSortedIndex(table, index, filename, source);
+		}
+		return index;
+
+	}
+
+	public static void writeIndex(Table table, TableIndex index, String filename, String source) throws IOException {
+
+		RowHashTable hashTable = index.getHashTable();
+		int[] slots = hashTable.getSlots();
+		int[] hashes = hashTable.getHashes();
+		int[] rows = hashTable.getRows();
+
+		try (DataOutputStream out = create(filename)) {
+			writeHeader(out, table, TYPE_HASH, index.getColumn(), source);
+			out.writeInt(slots.length);
+			out.writeInt(rows.length);
+			writeInts(out, slots);
+			writeInts(out, hashes);
+			writeInts(out, rows);
+		}
+
+		Table.log(table, "Wrote index on " + index.getColumn().getName() + " to " + filename + ".");
+
+	}
+
+	public static void writeSortedIndex(Table table, SortedTableIndex index, String filename, String source)
+			throws IOException {
+
+		int[] positions = index.getPositions();
+
+		try (DataOutputStream out = create(filename)) {
+			writeHeader(out, table, TYPE_SORTED, index.getColumn(), source);
+			out.writeInt(positions.length);
+			writeInts(out, positions);
+		}
+
+		Table.log(table, "Wrote sorted index on " + index.getColumn().getName() + " to " + filename + ".");
+
+	}
+
+	public static TableIndex readIndex(Table table, String column, String filename, String source)
+			throws IOException {
+		return readIndex(table, column, filename, source, false);
+	}
+
+	// returns null if the file does not exist or does not match the table
+	public static TableIndex readIndex(Table table, String column, String filename, String source, boolean verify)
+			throws IOException {
+
+		int[] slots;
+		int[] hashes;
+		int[] rows;
+		try (FileChannel channel = open(table, TYPE_HASH, column, filename, source, verify)) {
+			if (channel == null) {
+				return null;
+			}
+			int[] sizes = readInts(channel, 2);
+			slots = readInts(channel, sizes[0]);
+			hashes = readInts(channel, sizes[1]);
+			rows = readInts(channel, sizes[1]);
+		}
+
+		AbstractColumn indexColumn = table.getColumn(column);
+		TableIndex index = new TableIndex(table);
+		index.load(indexColumn, new RowHashTable(new AbstractColumn[] { indexColumn }, slots, hashes, rows));
+		table.addIndex(index);
+
+		Table.log(table, "Loaded index on " + column + " from " + filename + ".");
+		return index;
+
+	}
+
+	public static SortedTableIndex readSortedIndex(Table table, String column, String filename, String source)
+			throws IOException {
+		return readSortedIndex(table, column, filename, source, false);
+	}
+
+	// returns null if the file does not exist or does not match the table
+	public static SortedTableIndex readSortedIndex(Table table, String column, String filename, String source,
+			boolean verify) throws IOException {
+
+		int[] positions;
+		try (FileChannel channel = open(table, TYPE_SORTED, column, filename, source, verify)) {
+			if (channel == null) {
+				return null;
+			}
+			positions = readInts(channel, readInts(channel, 1)[0]);
+		}
+
+		SortedTableIndex index = new SortedTableIndex(table);
+		index.load(table.getColumn(column), positions);
+		table.addIndex(index);
+
+		Table.log(table, "Loaded sorted index on " + column + " from " + filename + ".");
+		return index;
+
+	}
+
+	private static void writeHeader(DataOutputStream out, Table table, int type, AbstractColumn column, String source)
+			throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(type);
+		out.writeLong(getSourceSize(source));
+		out.writeLong(getSourceModified(source));
+		out.writeInt(table.getRows().getSize());
+		out.writeInt(column.getType().ordinal());
+		out.writeLong(getFingerprint(column));
+		out.writeLong(getChecksum(column));
+		out.writeUTF(column.getName());
+	}
+
+	// channel positioned after the header, null if the file is missing or stale.
+	// the small header is read with a stream, the arrays are mapped.
+	private static FileChannel open(Table table, int type, String column, String filename, String source,
+			boolean verify) throws IOException {
+
+		File file = new File(filename);
+		if (!file.exists()) {
+			return null;
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			if (channel.size() < 12 || in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != type) {
+				Table.log(table, "Index file " + filename + " has wrong format.");
+				channel.close();
+				return null;
+			}
+
+			long sourceSize = in.readLong();
+			long sourceModified = in.readLong();
+			int rows = in.readInt();
+			int columnType = in.readInt();
+			long fingerprint = in.readLong();
+			long checksum = in.readLong();
+			String name = in.readUTF();
+
+			AbstractColumn indexColumn = table.getColumn(column);
+			if (sourceSize != getSourceSize(source) || sourceModified != getSourceModified(source)
+					|| rows != table.getRows().getSize() || columnType != indexColumn.getType().ordinal()
+					|| !column.equals(name) || fingerprint != getFingerprint(indexColumn)
+					|| (verify && checksum != getChecksum(indexColumn))) {
+				Table.log(table, "Index file " + filename + " is stale.");
+				channel.close();
+				return null;
+			}
+			return channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+	}
+
+	private static DataOutputStream create(String filename) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	// maps the next values of the channel and copies them in bulk
+	private static int[] readInts(FileChannel channel, int size) throws IOException {
+		long position = channel.position();
+		long bytes = (long) size * 4;
+		if (size < 0 || position + bytes > channel.size()) {
+			throw new IOException("Index file is truncated.");
+		}
+		MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, bytes);
+		int[] values = new int[size];
+		buffer.asIntBuffer().get(values);
+		channel.position(position + bytes);
+		return values;
+	}
+
+	// hash of evenly spaced values, cheap to compute for large tables
+	private static long getFingerprint(AbstractColumn column) {
+		int size = column.getSize();
+		int samples = Math.min(size, SAMPLES);
+		long fingerprint = size;
+		for (int i = 0; i < samples; i++) {
+			Object value = column.get((int) ((long) i * size / samples));
+			fingerprint = OpenHashTable.mix(fingerprint * 31 + (value != null ? value.hashCode() : 0));
+		}
+		if (size > 0) {
+			Object value = column.get(size - 1);
+			fingerprint = OpenHashTable.mix(fingerprint * 31 + (value != null ? value.hashCode() : 0));
+		}
+		return fingerprint;
+	}
+
+	// hash of all values in row order, with verify an index never matches a table
+	// with other keys even without a source file
+	private static long getChecksum(AbstractColumn column) {
+		long checksum = column.getSize();
+		for (int i = 0; i < column.getSize(); i++) {
+			Object value = column.get(i);
+			checksum = OpenHashTable.mix(checksum * 31 + (value != null ? value.hashCode() : 0));
+		}
+		return checksum;
+	}
+
+	private static long getSourceSize(String source) {
+		return source != null ? new File(source).length() : -1;
+	}
+
+	private static long getSourceModified(String source) {
+		return source != null ? new File(source).lastModified() : -1;
+	}
+
+}
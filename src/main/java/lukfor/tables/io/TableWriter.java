@@ -9,6 +9,7 @@ import genepi.io.table.writer.ExcelTableWriter;
 import genepi.io.table.writer.ITableWriter;
 import genepi.io.text.LineWriter;
 import lukfor.tables.Table;
+import lukfor.tables.TableView;
 import lukfor.tables.columns.AbstractColumn;
 import lukfor.tables.columns.types.DoubleColumn;
 import lukfor.tables.columns.types.IntegerColumn;
@@ -54,43 +55,53 @@ public class TableWriter {
 
 		long start = System.currentTimeMillis();
 
-		writer.setColumns(table.getColumns().getNames());
+		// views are written from the columns of their parent without a copy
+		final Table columns = table instanceof TableView && !((TableView) table).isMaterialized()
+				? ((TableView) table).getParent()
+				: table;
+		writer.setColumns(columns.getColumns().getNames());
 
+		final int[] rows = new int[1];
 		table.forEachRow(new IRowProcessor() {
 
 			public void process(Row row) {
-				for (int i = 0; i < table.getColumns().getSize(); i++) {
-					AbstractColumn column = table.getColumns().get(i);
-					try {
-						Object object = row.getObject(column.getName());
-						if (object != null) {
-							if (object instanceof Integer) {
-								writer.setInteger(column.getName(), (Integer) object);
-							} else if (object instanceof Double) {
-								writer.setDouble(column.getName(), (Double) object);
-							} else {
-								String value = column.objectToValue(object);
-								writer.setString(column.getName(), value);
-							}
-						} else {
-							writer.setString(column.getName(), "");
-						}
-
-					} catch (Exception e) {
-						e.printStackTrace();
-						writer.setString(column.getName(), "");
-					}
-				}
-				writer.next();
+				writeRow(columns, row, writer);
+				rows[0]++;
 			}
 		});
 		writer.close();
 
 		long end = System.currentTimeMillis();
 
-		Table.log(table, "Wrote " + table.getRows().getSize() + " rows and " + table.getColumns().getSize()
-				+ " columns. Time: " + (end - start) + " ms");
+		Table.log(table, "Wrote " + rows[0] + " rows and " + columns.getColumns().getSize() + " columns. Time: "
+				+ (end - start) + " ms");
+
+	}
+
+	public static void writeRow(Table table, Row row, ITableWriter writer) {
+		for (int i = 0; i < table.getColumns().getSize(); i++) {
+			AbstractColumn column = table.getColumns().get(i);
+			try {
+				Object object = row.getObject(column.getName());
+				if (object != null) {
+					if (object instanceof Integer) {
+						writer.setInteger(column.getName(), (Integer) object);
+					} else if (object instanceof Double) {
+						writer.setDouble(column.getName(), (Double) object);
+					} else {
+						String value = column.objectToValue(object);
+						writer.setString(column.getName(), value);
+					}
+				} else {
+					writer.setString(column.getName(), "");
+				}
 
+			} catch (Exception e) {
+				e.printStackTrace();
+				writer.setString(column.getName(), "");
+			}
+		}
+		writer.next();
 	}
 
 	public static void writeToSasCsv(final Table table, String filename) throws IOException {
@@ -2,7 +2,13 @@ package lukfor.tables.io.options;
 
 import java.io.IOException;
 
+import genepi.io.FileUtil;
+import genepi.io.table.reader.CsvTableReader;
+import genepi.io.table.reader.ITableReader;
 import lukfor.tables.Table;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.io.ExternalAggregator;
+import lukfor.tables.io.ExternalSorter;
 import lukfor.tables.io.TableBuilder;
 
 public class CsvTableOptions {
@@ -109,4 +115,19 @@ public class CsvTableOptions {
 		return TableBuilder.fromCsvFile(this);
 	}
 
+	// sorts the file without loading it into memory
+	public ExternalSorter sortBy(SortKey... keys) {
+		ITableReader reader = new CsvTableReader(filename, separator, ignoreComments);
+		return new ExternalSorter(FileUtil.getFilename(filename), reader, keys)
+				.withColumnTypeDetection(columnTypeDetection);
+	}
+
+	// groups the file with a memory budget, rows are partitioned to temp files if
+	// the file does not fit into memory
+	public ExternalAggregator groupBy(String... columns) {
+		ITableReader reader = new CsvTableReader(filename, separator, ignoreComments);
+		return new ExternalAggregator(FileUtil.getFilename(filename), reader, columns)
+				.withColumnTypeDetection(columnTypeDetection);
+	}
+
 }
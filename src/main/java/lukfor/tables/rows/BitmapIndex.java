@@ -0,0 +1,92 @@
+package lukfor.tables.rows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.utils.Bitmap;
+
+public class BitmapIndex implements ITableIndex {
+
+	private Table table;
+
+	private AbstractColumn column;
+
+	private Map<Object, Bitmap> bitmaps;
+
+	private int indexedRows = 0;
+
+	public BitmapIndex(Table table) {
+		this.table = table;
+	}
+
+	public void build(AbstractColumn column) {
+		this.column = column;
+		bitmaps = new HashMap<Object, Bitmap>();
+		indexedRows = 0;
+		update();
+	}
+
+	// rows with the given value. missing values are indexed as null.
+	public Bitmap get(Object value) {
+		update();
+		Bitmap bitmap = bitmaps.get(value);
+		return bitmap != null ? bitmap : new Bitmap();
+	}
+
+	// rows with one of the given values
+	public Bitmap getAny(Object... values) {
+		Bitmap result = new Bitmap();
+		for (Object value : values) {
+			result = result.or(get(value));
+		}
+		return result;
+	}
+
+	// rows without the given value
+	public Bitmap getNot(Object value) {
+		return get(value).not(table.getRows().getSize());
+	}
+
+	public Set<Object> getValues() {
+		update();
+		return bitmaps.keySet();
+	}
+
+	public AbstractColumn getColumn() {
+		return column;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return new String[] { column.getName() };
+	}
+
+	@Override
+	public void update() {
+		if (column.getSize() <= indexedRows) {
+			return;
+		}
+		for (int i = indexedRows; i < column.getSize(); i++) {
+			Object value = column.get(i);
+			Bitmap bitmap = bitmaps.get(value);
+			if (bitmap == null) {
+				bitmap = new Bitmap();
+				bitmaps.put(value, bitmap);
+			}
+			bitmap.add(i);
+		}
+		indexedRows = column.getSize();
+		column.setIndexed(indexedRows);
+	}
+
+	@Override
+	public void remap(int[] positions) {
+		// positions of almost every row change, rebuilding in one pass is cheaper
+		// than moving single bits.
+		build(column);
+	}
+
+}
@@ -0,0 +1,31 @@
+package lukfor.tables.rows;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+
+// aggregate function that keeps one accumulator per group. the accumulators are
+// stored in arrays indexed by group id and filled in a single pass over all rows.
+public interface IGroupAggregator {
+
+	// binds the aggregator to the source table and resets its state
+	public void init(Table table);
+
+	public void ensureCapacity(int groups);
+
+	// clears the accumulator of a group, e.g. to reuse it for the next run
+	public void reset(int group);
+
+	public void add(int group, int row);
+
+	// empty column of the result table
+	public AbstractColumn createColumn();
+
+	public Object get(int group);
+
+	// empty aggregator on the same source, e.g. for another thread
+	public IGroupAggregator createPartial();
+
+	// adds the state of a group of a partial aggregator to a group
+	public void merge(int group, IGroupAggregator partial, int partialGroup);
+
+}
@@ -0,0 +1,14 @@
+package lukfor.tables.rows;
+
+public interface ITableIndex {
+
+	public String[] getColumnNames();
+
+	// indexes all rows that were appended since the last update
+	public void update();
+
+	// rows were sorted or filtered: positions[i] is the old position of the row
+	// that is now at position i. update() is called before the rows change.
+	public void remap(int[] positions);
+
+}
@@ -0,0 +1,287 @@
+package lukfor.tables.rows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.utils.IndexUtil;
+import lukfor.tables.utils.RowHashTable;
+
+public class MultiTableIndex implements ITableIndex {
+
+	private Table table;
+
+	private String[] names;
+
+	private AbstractColumn[] columns;
+
+	private RowHashTable keys;
+
+	// csr layout: rows of key k are positions[offsets[k]] to positions[offsets[k + 1] - 1]
+	private int[] offsets;
+
+	private int[] positions;
+
+	// rows appended after the last build are chained per key until the next compaction
+	private int[] appendedHead = new int[0];
+
+	private int[] appendedTail = new int[0];
+
+	private int[] appendedNext = new int[0];
+
+	private int[] appendedRows = new int[0];
+
+	private int appended = 0;
+
+	private int indexedRows = 0;
+
+	public MultiTableIndex(Table table) {
+		this.table = table;
+	}
+
+	public void build(AbstractColumn... columns) {
+
+		this.columns = columns;
+		names = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			names[i] = columns[i].getName();
+		}
+
+		int size = columns.length > 0 ? columns[0].getSize() : 0;
+		keys = new RowHashTable(columns, size);
+
+		int[] groups = new int[size];
+		for (int i = 0; i < size; i++) {
+			groups[i] = keys.add(i);
+		}
+		buildPositions(groups, keys.getSize());
+		indexedRows = size;
+		setIndexed();
+
+	}
+
+	public List<Row> getRows(Object... key) {
+		int[] positions = getPositions(key);
+		List<Row> rows = new Vector<Row>(positions.length);
+		for (int position : positions) {
+			rows.add(table.getRows().get(position));
+		}
+		return rows;
+	}
+
+	public int[] getPositions(Object... key) {
+		int group = find(key);
+		if (group == -1) {
+			return new int[0];
+		}
+		int[] result = new int[getCount(group)];
+		int size = 0;
+		if (group < offsets.length - 1) {
+			size = offsets[group + 1] - offsets[group];
+			System.arraycopy(positions, offsets[group], result, 0, size);
+		}
+		if (group < appendedHead.length) {
+			for (int entry = appendedHead[group]; entry != -1; entry = appendedNext[entry]) {
+				result[size++] = appendedRows[entry];
+			}
+		}
+		return result;
+	}
+
+	public Row getRow(Object... key) {
+		int[] positions = getPositions(key);
+		if (positions.length == 0) {
+			return null;
+		}
+		return table.getRows().get(positions[0]);
+	}
+
+	public int getCount(Object... key) {
+		int group = find(key);
+		if (group == -1) {
+			return 0;
+		}
+		return getCount(group);
+	}
+
+	public boolean contains(Object... key) {
+		return find(key) != -1;
+	}
+
+	public int getKeys() {
+		update();
+		return keys.getSize();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return names;
+	}
+
+	private void setIndexed() {
+		for (AbstractColumn column : columns) {
+			column.setIndexed(indexedRows);
+		}
+	}
+
+	@Override
+	public void update() {
+
+		int size = columns[0].getSize();
+		if (size <= indexedRows) {
+			return;
+		}
+
+		for (int i = indexedRows; i < size; i++) {
+			int group = keys.add(i);
+			if (appended == appendedRows.length) {
+				appendedRows = Arrays.copyOf(appendedRows, Math.max(appended * 2, 16));
+				appendedNext = Arrays.copyOf(appendedNext, appendedRows.length);
+			}
+			if (group >= appendedHead.length) {
+				int length = Math.max(keys.getSize() * 2, 16);
+				int oldLength = appendedHead.length;
+				appendedHead = Arrays.copyOf(appendedHead, length);
+				appendedTail = Arrays.copyOf(appendedTail, length);
+				Arrays.fill(appendedHead, oldLength, length, -1);
+			}
+			int entry = appended++;
+			appendedRows[entry] = i;
+			appendedNext[entry] = -1;
+			if (appendedHead[group] == -1) {
+				appendedHead[group] = entry;
+			} else {
+				appendedNext[appendedTail[group]] = entry;
+			}
+			appendedTail[group] = entry;
+		}
+		indexedRows = size;
+		setIndexed();
+
+		// merge chains into the csr arrays when they get too long
+		if (appended > 1024 && appended > positions.length / 8) {
+			compact();
+		}
+
+	}
+
+	@Override
+	public void remap(int[] newPositions) {
+
+		compact();
+		int[] mapping = IndexUtil.inverse(newPositions, indexedRows);
+
+		// rows selected more than once can not be mapped back, rebuild the index
+		if (IndexUtil.count(mapping) != newPositions.length) {
+			build(columns);
+			return;
+		}
+
+		if (newPositions.length == indexedRows) {
+
+			// sort: same keys, only positions changed
+			keys.remap(mapping);
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = mapping[positions[i]];
+			}
+			for (int group = 0; group < offsets.length - 1; group++) {
+				Arrays.sort(positions, offsets[group], offsets[group + 1]);
+			}
+
+		} else {
+
+			// filter: rehash the first remaining row of each key, not every row
+			int[] groups = new int[newPositions.length];
+			RowHashTable newKeys = new RowHashTable(columns, keys.getSize());
+			for (int group = 0; group < offsets.length - 1; group++) {
+				int newGroup = -1;
+				for (int i = offsets[group]; i < offsets[group + 1]; i++) {
+					int position = mapping[positions[i]];
+					if (position != -1) {
+						if (newGroup == -1) {
+							newGroup = newKeys.addUnique(position);
+						}
+						groups[position] = newGroup;
+					}
+				}
+			}
+			keys = newKeys;
+			buildPositions(groups, keys.getSize());
+
+		}
+
+		indexedRows = newPositions.length;
+		setIndexed();
+
+	}
+
+	private void compact() {
+
+		if (appended == 0) {
+			return;
+		}
+
+		int[] groups = new int[indexedRows];
+		for (int group = 0; group < offsets.length - 1; group++) {
+			for (int i = offsets[group]; i < offsets[group + 1]; i++) {
+				groups[positions[i]] = group;
+			}
+		}
+		for (int group = 0; group < appendedHead.length; group++) {
+			for (int entry = appendedHead[group]; entry != -1; entry = appendedNext[entry]) {
+				groups[appendedRows[entry]] = group;
+			}
+		}
+		buildPositions(groups, keys.getSize());
+
+	}
+
+	private void buildPositions(int[] groups, int size) {
+
+		offsets = new int[size + 1];
+		for (int i = 0; i < groups.length; i++) {
+			offsets[groups[i] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		// positions of each key stay in row order
+		int[] next = Arrays.copyOf(offsets, size);
+		positions = new int[groups.length];
+		for (int i = 0; i < groups.length; i++) {
+			positions[next[groups[i]]++] = i;
+		}
+
+		appendedHead = new int[0];
+		appendedTail = new int[0];
+		appended = 0;
+
+	}
+
+	private int getCount(int group) {
+		int count = 0;
+		if (group < offsets.length - 1) {
+			count = offsets[group + 1] - offsets[group];
+		}
+		if (group < appendedHead.length) {
+			for (int entry = appendedHead[group]; entry != -1; entry = appendedNext[entry]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int find(Object[] key) {
+		if (key.length != names.length) {
+			throw new TableException("Index on " + names.length + " column(s) queried with a key of length " + key.length
+					+ ".");
+		}
+		update();
+		return keys.find(key);
+	}
+
+}
@@ -0,0 +1,265 @@
+package lukfor.tables.rows;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.utils.IndexUtil;
+
+public class SortedTableIndex implements ITableIndex {
+
+	private Table table;
+
+	private AbstractColumn column;
+
+	// row positions ordered by value. missing values are not indexed.
+	private int[] positions = new int[0];
+
+	private int indexedRows = 0;
+
+	public SortedTableIndex(Table table) {
+		this.table = table;
+	}
+
+	public void build(final AbstractColumn column) {
+		this.column = column;
+		positions = new int[0];
+		indexedRows = 0;
+		update();
+	}
+
+	// uses an already sorted permutation, e.g. loaded from an index file
+	public void load(AbstractColumn column, int[] positions) {
+		this.column = column;
+		this.positions = positions;
+		this.indexedRows = column.getSize();
+		column.setIndexed(indexedRows);
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return new String[] { column.getName() };
+	}
+
+	@Override
+	public void update() {
+
+		if (column.getSize() <= indexedRows) {
+			return;
+		}
+
+		int[] sorted = sort(indexedRows, column.getSize());
+		indexedRows = column.getSize();
+		column.setIndexed(indexedRows);
+		if (positions.length == 0) {
+			positions = sorted;
+			return;
+		}
+
+		// merge new rows into the existing order. on equal values existing rows
+		// stay first.
+		int[] merged = new int[positions.length + sorted.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < positions.length && j < sorted.length) {
+			if (column.compare(column.get(sorted[j]), column.get(positions[i])) < 0) {
+				merged[k++] = sorted[j++];
+			} else {
+				merged[k++] = positions[i++];
+			}
+		}
+		while (i < positions.length) {
+			merged[k++] = positions[i++];
+		}
+		while (j < sorted.length) {
+			merged[k++] = sorted[j++];
+		}
+		positions = merged;
+
+	}
+
+	@Override
+	public void remap(int[] newPositions) {
+		int[] mapping = IndexUtil.inverse(newPositions, indexedRows);
+		int size = 0;
+		for (int i = 0; i < positions.length; i++) {
+			int position = mapping[positions[i]];
+			if (position != -1) {
+				positions[size++] = position;
+			}
+		}
+		positions = Arrays.copyOf(positions, size);
+		indexedRows = newPositions.length;
+		column.setIndexed(indexedRows);
+	}
+
+	// sorts all non-missing rows between from and to
+	private int[] sort(int from, int to) {
+
+		int missings = 0;
+		for (int i = from; i < to; i++) {
+			if (column.get(i) == null) {
+				missings++;
+			}
+		}
+
+		int[] rows = new int[to - from - missings];
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			if (column.get(i) != null) {
+				rows[n++] = i;
+			}
+		}
+
+		// stable sort: rows with equal values keep their order in the table
+		return ColumnSorter.sort(column, rows, ColumnSorter.SORT_ASCEND);
+	}
+
+	public List<Row> range(Object lo, Object hi) {
+		update();
+		return getRows(lowerBound(lo), upperBound(hi));
+	}
+
+	public List<Row> lessThan(Object value) {
+		update();
+		return getRows(0, lowerBound(value));
+	}
+
+	public List<Row> lessThanOrEqual(Object value) {
+		update();
+		return getRows(0, upperBound(value));
+	}
+
+	public List<Row> greaterThan(Object value) {
+		update();
+		return getRows(upperBound(value), positions.length);
+	}
+
+	public List<Row> greaterThanOrEqual(Object value) {
+		update();
+		return getRows(lowerBound(value), positions.length);
+	}
+
+	public int count(Object lo, Object hi) {
+		update();
+		return Math.max(upperBound(hi) - lowerBound(lo), 0);
+	}
+
+	public Row getNearestRow(Object value) {
+		update();
+
+		if (positions.length == 0) {
+			return null;
+		}
+
+		int ceiling = lowerBound(value);
+		if (ceiling == 0) {
+			return getRow(0);
+		}
+		if (ceiling == positions.length) {
+			return getRow(positions.length - 1);
+		}
+
+		Object lower = valueAt(ceiling - 1);
+		Object upper = valueAt(ceiling);
+		if (value instanceof Number) {
+			double x = ((Number) value).doubleValue();
+			double distanceLower = x - ((Number) lower).doubleValue();
+			double distanceUpper = ((Number) upper).doubleValue() - x;
+			return getRow(distanceLower <= distanceUpper ? ceiling - 1 : ceiling);
+		}
+		if (value instanceof Date) {
+			long x = ((Date) value).getTime();
+			long distanceLower = x - ((Date) lower).getTime();
+			long distanceUpper = ((Date) upper).getTime() - x;
+			return getRow(distanceLower <= distanceUpper ? ceiling - 1 : ceiling);
+		}
+
+		// no distance defined: use the smallest value that is not less than value
+		return getRow(ceiling);
+	}
+
+	public Row getFirstRow() {
+		update();
+		return positions.length > 0 ? getRow(0) : null;
+	}
+
+	public Row getLastRow() {
+		update();
+		return positions.length > 0 ? getRow(positions.length - 1) : null;
+	}
+
+	// returns the i-th row in sort order
+	public Row getRow(int i) {
+		return table.getRows().get(positions[i]);
+	}
+
+	public void forEachRow(IRowProcessor processor) {
+		update();
+		for (int i = 0; i < positions.length; i++) {
+			processor.process(getRow(i));
+		}
+	}
+
+	public int[] getPositions() {
+		update();
+		return positions;
+	}
+
+	public int getSize() {
+		update();
+		return positions.length;
+	}
+
+	public AbstractColumn getColumn() {
+		return column;
+	}
+
+	private List<Row> getRows(int from, int to) {
+		List<Row> rows = new Vector<Row>(Math.max(to - from, 0));
+		for (int i = from; i < to; i++) {
+			rows.add(getRow(i));
+		}
+		return rows;
+	}
+
+	private Object valueAt(int i) {
+		return column.get(positions[i]);
+	}
+
+	// first position with a value >= value
+	private int lowerBound(Object value) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (column.compare(valueAt(mid), value) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// first position with a value > value
+	private int upperBound(Object value) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (column.compare(valueAt(mid), value) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
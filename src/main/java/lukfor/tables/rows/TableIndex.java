@@ -1,41 +1,101 @@
 package lukfor.tables.rows;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import lukfor.tables.Table;
 import lukfor.tables.columns.AbstractColumn;
 import lukfor.tables.exceptions.TableException;
+import lukfor.tables.utils.IndexUtil;
+import lukfor.tables.utils.RowHashTable;
 
-public class TableIndex {
+public class TableIndex implements ITableIndex {
 
 	private Table table;
 
-	private Map<Object, Integer> index;
+	private AbstractColumn column;
+
+	private RowHashTable index;
+
+	private int indexedRows = 0;
 
 	public TableIndex(Table table) {
 		this.table = table;
 	}
 
 	public void build(AbstractColumn column) {
-		index = new HashMap<Object, Integer>();
-		for (int i = 0; i < column.getSize(); i++) {
-			Object value = column.get(i);
-			if (index.containsKey(value)) {
+		this.column = column;
+		index = new RowHashTable(new AbstractColumn[] { column }, column.getSize());
+		indexedRows = 0;
+		update();
+	}
+
+	// uses an already built hash table, e.g. loaded from an index file
+	public void load(AbstractColumn column, RowHashTable index) {
+		this.column = column;
+		this.index = index;
+		this.indexedRows = column.getSize();
+		column.setIndexed(indexedRows);
+	}
+
+	public Row getRow(Object value) {
+		update();
+		int key = index.find(new Object[] { value });
+		if (key != -1) {
+			return table.getRows().get(index.getRow(key));
+		} else {
+			return null;
+		}
+	}
+
+	public RowHashTable getHashTable() {
+		update();
+		return index;
+	}
+
+	public AbstractColumn getColumn() {
+		return column;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return new String[] { column.getName() };
+	}
+
+	@Override
+	public void update() {
+		if (column.getSize() <= indexedRows) {
+			return;
+		}
+		for (int i = indexedRows; i < column.getSize(); i++) {
+			int keys = index.getSize();
+			if (index.add(i) < keys) {
+				// rows before the duplicate stay indexed
+				indexedRows = i;
+				column.setIndexed(indexedRows);
+				Object value = column.get(i);
 				throw new TableException("Index creation not possible. Values in column '" + column
 						+ "' are not unique. For example '" + value + "' found twice.");
 			}
-			index.put(value, i);
 		}
+		indexedRows = column.getSize();
+		column.setIndexed(indexedRows);
 	}
 
-	public Row getRow(Object value) {
-		Integer position = index.get(value);
-		if (position != null) {
-			return table.getRows().get(position);
+	@Override
+	public void remap(int[] positions) {
+		int[] mapping = IndexUtil.inverse(positions, indexedRows);
+		if (positions.length == indexedRows) {
+			index.remap(mapping);
 		} else {
-			return null;
+			RowHashTable newIndex = new RowHashTable(new AbstractColumn[] { column }, positions.length);
+			for (int key = 0; key < index.getSize(); key++) {
+				int position = mapping[index.getRow(key)];
+				if (position != -1) {
+					newIndex.addUnique(position);
+				}
+			}
+			index = newIndex;
 		}
+		indexedRows = positions.length;
+		column.setIndexed(indexedRows);
 	}
 
 }
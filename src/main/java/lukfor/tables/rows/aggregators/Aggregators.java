@@ -0,0 +1,47 @@
+package lukfor.tables.rows.aggregators;
+
+import java.math.BigDecimal;
+
+// short names for groupBy(..).agg(count(), sum("a"), mean("b"))). result
+// columns are named after the function and the value column, e.g. sum_a.
+public class Aggregators {
+
+	public static CountAggregator count() {
+		return new CountAggregator();
+	}
+
+	public static SumAggregator sum(String column) {
+		return new SumAggregator(column, "sum_" + column);
+	}
+
+	public static MeanAggregator mean(String column) {
+		return new MeanAggregator(column, "mean_" + column);
+	}
+
+	public static MinAggregator min(String column) {
+		return new MinAggregator(column, "min_" + column);
+	}
+
+	public static MaxAggregator max(String column) {
+		return new MaxAggregator(column, "max_" + column);
+	}
+
+	public static QuantileAggregator median(String column) {
+		return new QuantileAggregator(column, 0.5, "median_" + column);
+	}
+
+	// exact quantile, e.g. quantile("a", 0.95) is named p95_a
+	public static QuantileAggregator quantile(String column, double quantile) {
+		return new QuantileAggregator(column, quantile, getName(quantile) + "_" + column);
+	}
+
+	// approximate quantile with bounded memory per group
+	public static TDigestAggregator approxQuantile(String column, double quantile) {
+		return new TDigestAggregator(column, quantile, getName(quantile) + "_" + column);
+	}
+
+	private static String getName(double quantile) {
+		return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+	}
+
+}
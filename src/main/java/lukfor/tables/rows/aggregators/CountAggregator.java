@@ -0,0 +1,68 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.rows.IGroupAggregator;
+
+public class CountAggregator implements IGroupAggregator {
+
+	private String name;
+
+	private int[] counts;
+
+	public CountAggregator() {
+		this("count");
+	}
+
+	public CountAggregator(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public void init(Table table) {
+		counts = new int[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (counts.length < groups) {
+			counts = Arrays.copyOf(counts, groups);
+		}
+	}
+
+	@Override
+	public void reset(int group) {
+		counts[group] = 0;
+	}
+
+	@Override
+	public void add(int group, int row) {
+		counts[group]++;
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		CountAggregator partial = new CountAggregator(name);
+		partial.counts = new int[0];
+		return partial;
+	}
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		counts[group] += ((CountAggregator) partial).counts[partialGroup];
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		return new IntegerColumn(name);
+	}
+
+	@Override
+	public Object get(int group) {
+		return counts[group];
+	}
+
+}
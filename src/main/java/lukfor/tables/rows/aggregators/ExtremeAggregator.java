@@ -0,0 +1,142 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.rows.IGroupAggregator;
+
+// smallest or largest value per group. numbers are kept as doubles, all other
+// types as references compared by the column. missing values are ignored.
+public abstract class ExtremeAggregator implements IGroupAggregator {
+
+	protected String column;
+
+	protected String name;
+
+	private int sign;
+
+	private AbstractColumn source;
+
+	private Object[] values;
+
+	private boolean numeric;
+
+	private double[] numbers;
+
+	private Object[] extremes;
+
+	private boolean[] found;
+
+	protected ExtremeAggregator(String column, String name, int sign) {
+		this.column = column;
+		this.name = name;
+		this.sign = sign;
+	}
+
+	@Override
+	public void init(Table table) {
+		source = table.getColumn(column);
+		values = source.toArray();
+		numeric = source instanceof IntegerColumn || source instanceof DoubleColumn;
+		numbers = new double[0];
+		extremes = new Object[0];
+		found = new boolean[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (found.length < groups) {
+			found = Arrays.copyOf(found, groups);
+			if (numeric) {
+				numbers = Arrays.copyOf(numbers, groups);
+			} else {
+				extremes = Arrays.copyOf(extremes, groups);
+			}
+		}
+	}
+
+	@Override
+	public void reset(int group) {
+		found[group] = false;
+		if (!numeric) {
+			extremes[group] = null;
+		}
+	}
+
+	@Override
+	public void add(int group, int row) {
+		Object value = values[row];
+		if (value == null) {
+			return;
+		}
+		if (numeric) {
+			add(group, ((Number) value).doubleValue());
+		} else {
+			add(group, value);
+		}
+	}
+
+	private void add(int group, double number) {
+		if (!found[group] || (number - numbers[group]) * sign > 0) {
+			numbers[group] = number;
+		}
+		found[group] = true;
+	}
+
+	private void add(int group, Object value) {
+		if (!found[group] || source.compare(value, extremes[group]) * sign > 0) {
+			extremes[group] = value;
+		}
+		found[group] = true;
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		ExtremeAggregator partial = create();
+		partial.source = source;
+		partial.values = values;
+		partial.numeric = numeric;
+		partial.numbers = new double[0];
+		partial.extremes = new Object[0];
+		partial.found = new boolean[0];
+		return partial;
+	}
+
+	// new aggregator of the same kind
+	protected abstract ExtremeAggregator create();
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		ExtremeAggregator other = (ExtremeAggregator) partial;
+		if (!other.found[partialGroup]) {
+			return;
+		}
+		if (numeric) {
+			add(group, other.numbers[partialGroup]);
+		} else {
+			add(group, other.extremes[partialGroup]);
+		}
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		AbstractColumn result = source.cloneStructure();
+		result.setName(name);
+		return result;
+	}
+
+	@Override
+	public Object get(int group) {
+		if (!found[group]) {
+			return null;
+		}
+		if (!numeric) {
+			return extremes[group];
+		}
+		return source instanceof IntegerColumn ? (Object) (int) numbers[group] : (Object) numbers[group];
+	}
+
+}
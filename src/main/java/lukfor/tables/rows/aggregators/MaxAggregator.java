@@ -0,0 +1,18 @@
+package lukfor.tables.rows.aggregators;
+
+public class MaxAggregator extends ExtremeAggregator {
+
+	public MaxAggregator(String column) {
+		this(column, "max");
+	}
+
+	public MaxAggregator(String column, String name) {
+		super(column, name, 1);
+	}
+
+	@Override
+	protected ExtremeAggregator create() {
+		return new MaxAggregator(column, name);
+	}
+
+}
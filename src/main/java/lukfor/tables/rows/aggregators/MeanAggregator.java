@@ -0,0 +1,88 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.rows.IGroupAggregator;
+
+// missing values are ignored, the mean of a group without values is missing
+public class MeanAggregator implements IGroupAggregator {
+
+	private String column;
+
+	private String name;
+
+	private Object[] values;
+
+	private double[] sums;
+
+	private int[] counts;
+
+	public MeanAggregator(String column) {
+		this(column, "mean");
+	}
+
+	public MeanAggregator(String column, String name) {
+		this.column = column;
+		this.name = name;
+	}
+
+	@Override
+	public void init(Table table) {
+		values = table.getColumn(column).toArray();
+		sums = new double[0];
+		counts = new int[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (sums.length < groups) {
+			sums = Arrays.copyOf(sums, groups);
+			counts = Arrays.copyOf(counts, groups);
+		}
+	}
+
+	@Override
+	public void reset(int group) {
+		sums[group] = 0;
+		counts[group] = 0;
+	}
+
+	@Override
+	public void add(int group, int row) {
+		Object value = values[row];
+		if (value != null) {
+			sums[group] += ((Number) value).doubleValue();
+			counts[group]++;
+		}
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		MeanAggregator partial = new MeanAggregator(column, name);
+		partial.values = values;
+		partial.sums = new double[0];
+		partial.counts = new int[0];
+		return partial;
+	}
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		MeanAggregator other = (MeanAggregator) partial;
+		sums[group] += other.sums[partialGroup];
+		counts[group] += other.counts[partialGroup];
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		return new DoubleColumn(name);
+	}
+
+	@Override
+	public Object get(int group) {
+		return counts[group] > 0 ? sums[group] / counts[group] : null;
+	}
+
+}
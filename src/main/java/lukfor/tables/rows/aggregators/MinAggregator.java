@@ -0,0 +1,18 @@
+package lukfor.tables.rows.aggregators;
+
+public class MinAggregator extends ExtremeAggregator {
+
+	public MinAggregator(String column) {
+		this(column, "min");
+	}
+
+	public MinAggregator(String column, String name) {
+		super(column, name, -1);
+	}
+
+	@Override
+	protected ExtremeAggregator create() {
+		return new MinAggregator(column, name);
+	}
+
+}
@@ -0,0 +1,108 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.rows.IGroupAggregator;
+import lukfor.tables.utils.QuantileUtil;
+
+// exact quantile per group. all values of a group are kept in a primitive array
+// until the quantile is selected, use TDigestAggregator for large groups.
+// missing values are ignored.
+public class QuantileAggregator implements IGroupAggregator {
+
+	private String column;
+
+	private double quantile;
+
+	private String name;
+
+	private Object[] values;
+
+	private double[][] groups;
+
+	private int[] sizes;
+
+	public QuantileAggregator(String column, double quantile) {
+		this(column, quantile, "quantile");
+	}
+
+	public QuantileAggregator(String column, double quantile, String name) {
+		QuantileUtil.checkQuantile(quantile);
+		this.column = column;
+		this.quantile = quantile;
+		this.name = name;
+	}
+
+	@Override
+	public void init(Table table) {
+		values = table.getColumn(column).toArray();
+		groups = new double[0][];
+		sizes = new int[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (sizes.length < groups) {
+			this.groups = Arrays.copyOf(this.groups, groups);
+			sizes = Arrays.copyOf(sizes, groups);
+		}
+	}
+
+	// keeps the buffer of the group for the next values
+	@Override
+	public void reset(int group) {
+		sizes[group] = 0;
+	}
+
+	@Override
+	public void add(int group, int row) {
+		Object value = values[row];
+		if (value != null) {
+			add(group, ((Number) value).doubleValue());
+		}
+	}
+
+	private void add(int group, double value) {
+		double[] data = groups[group];
+		if (data == null) {
+			data = groups[group] = new double[8];
+		} else if (sizes[group] == data.length) {
+			data = groups[group] = Arrays.copyOf(data, data.length * 2);
+		}
+		data[sizes[group]++] = value;
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		QuantileAggregator partial = new QuantileAggregator(column, quantile, name);
+		partial.values = values;
+		partial.groups = new double[0][];
+		partial.sizes = new int[0];
+		return partial;
+	}
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		QuantileAggregator other = (QuantileAggregator) partial;
+		for (int i = 0; i < other.sizes[partialGroup]; i++) {
+			add(group, other.groups[partialGroup][i]);
+		}
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		return new DoubleColumn(name);
+	}
+
+	@Override
+	public Object get(int group) {
+		if (sizes[group] == 0) {
+			return null;
+		}
+		return QuantileUtil.quantile(groups[group], sizes[group], quantile);
+	}
+
+}
@@ -0,0 +1,113 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.IGroupAggregator;
+
+// sum of an integer column is an integer, missing values are ignored. integers
+// are summed exactly in longs and fail if the sum does not fit into an integer.
+public class SumAggregator implements IGroupAggregator {
+
+	private String column;
+
+	private String name;
+
+	private Object[] values;
+
+	private boolean integers;
+
+	private double[] sums;
+
+	private long[] longSums;
+
+	public SumAggregator(String column) {
+		this(column, "sum");
+	}
+
+	public SumAggregator(String column, String name) {
+		this.column = column;
+		this.name = name;
+	}
+
+	@Override
+	public void init(Table table) {
+		AbstractColumn source = table.getColumn(column);
+		integers = source instanceof IntegerColumn;
+		values = source.toArray();
+		sums = new double[0];
+		longSums = new long[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (integers && longSums.length < groups) {
+			longSums = Arrays.copyOf(longSums, groups);
+		} else if (!integers && sums.length < groups) {
+			sums = Arrays.copyOf(sums, groups);
+		}
+	}
+
+	@Override
+	public void reset(int group) {
+		if (integers) {
+			longSums[group] = 0;
+		} else {
+			sums[group] = 0;
+		}
+	}
+
+	@Override
+	public void add(int group, int row) {
+		Object value = values[row];
+		if (value == null) {
+			return;
+		}
+		if (integers) {
+			longSums[group] += (Integer) value;
+		} else {
+			sums[group] += ((Number) value).doubleValue();
+		}
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		SumAggregator partial = new SumAggregator(column, name);
+		partial.integers = integers;
+		partial.values = values;
+		partial.sums = new double[0];
+		partial.longSums = new long[0];
+		return partial;
+	}
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		if (integers) {
+			longSums[group] += ((SumAggregator) partial).longSums[partialGroup];
+		} else {
+			sums[group] += ((SumAggregator) partial).sums[partialGroup];
+		}
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		return integers ? new IntegerColumn(name) : new DoubleColumn(name);
+	}
+
+	@Override
+	public Object get(int group) {
+		if (!integers) {
+			return sums[group];
+		}
+		long sum = longSums[group];
+		if (sum != (int) sum) {
+			throw new TableException("Sum of column '" + column + "' is out of integer range: " + sum + ".");
+		}
+		return (int) sum;
+	}
+
+}
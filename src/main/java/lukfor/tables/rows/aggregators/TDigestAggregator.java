@@ -0,0 +1,107 @@
+package lukfor.tables.rows.aggregators;
+
+import java.util.Arrays;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.rows.IGroupAggregator;
+import lukfor.tables.utils.QuantileUtil;
+import lukfor.tables.utils.TDigest;
+
+// approximate quantile per group with a t-digest of bounded size. missing
+// values are ignored.
+public class TDigestAggregator implements IGroupAggregator {
+
+	private String column;
+
+	private double quantile;
+
+	private String name;
+
+	private double compression = TDigest.DEFAULT_COMPRESSION;
+
+	private Object[] values;
+
+	private TDigest[] digests;
+
+	public TDigestAggregator(String column, double quantile) {
+		this(column, quantile, "quantile");
+	}
+
+	public TDigestAggregator(String column, double quantile, String name) {
+		QuantileUtil.checkQuantile(quantile);
+		this.column = column;
+		this.quantile = quantile;
+		this.name = name;
+	}
+
+	public TDigestAggregator withCompression(double compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	@Override
+	public void init(Table table) {
+		values = table.getColumn(column).toArray();
+		digests = new TDigest[0];
+	}
+
+	@Override
+	public void ensureCapacity(int groups) {
+		if (digests.length < groups) {
+			digests = Arrays.copyOf(digests, groups);
+		}
+	}
+
+	@Override
+	public void reset(int group) {
+		digests[group] = null;
+	}
+
+	@Override
+	public void add(int group, int row) {
+		Object value = values[row];
+		if (value != null) {
+			getDigest(group).add(((Number) value).doubleValue());
+		}
+	}
+
+	private TDigest getDigest(int group) {
+		if (digests[group] == null) {
+			digests[group] = new TDigest(compression);
+		}
+		return digests[group];
+	}
+
+	@Override
+	public IGroupAggregator createPartial() {
+		TDigestAggregator partial = new TDigestAggregator(column, quantile, name);
+		partial.compression = compression;
+		partial.values = values;
+		partial.digests = new TDigest[0];
+		return partial;
+	}
+
+	@Override
+	public void merge(int group, IGroupAggregator partial, int partialGroup) {
+		TDigest other = ((TDigestAggregator) partial).digests[partialGroup];
+		if (other != null) {
+			getDigest(group).merge(other);
+		}
+	}
+
+	@Override
+	public AbstractColumn createColumn() {
+		return new DoubleColumn(name);
+	}
+
+	@Override
+	public Object get(int group) {
+		if (digests[group] == null) {
+			return null;
+		}
+		return digests[group].quantile(quantile);
+	}
+
+}
@@ -0,0 +1,362 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+
+// compressed bitmap of row positions (roaring layout): positions are split into
+// chunks of 65536 by their upper 16 bits. sparse chunks store sorted values,
+// dense chunks a bitset of 1024 longs.
+public class Bitmap {
+
+	private static final int ARRAY_MAX = 4096;
+
+	private static final int WORDS = 1024;
+
+	private char[] keys = new char[4];
+
+	private Container[] containers = new Container[4];
+
+	private int size = 0;
+
+	public static Bitmap of(int... positions) {
+		Bitmap bitmap = new Bitmap();
+		for (int position : positions) {
+			bitmap.add(position);
+		}
+		return bitmap;
+	}
+
+	// all positions from 0 to size - 1
+	public static Bitmap range(int size) {
+		Bitmap bitmap = new Bitmap();
+		for (int start = 0; start < size; start += 65536) {
+			int length = Math.min(65536, size - start);
+			Container container = new Container();
+			container.words = new long[WORDS];
+			Arrays.fill(container.words, 0, length >>> 6, -1L);
+			if ((length & 63) != 0) {
+				container.words[length >>> 6] = (1L << (length & 63)) - 1;
+			}
+			container.cardinality = length;
+			bitmap.append((char) (start >>> 16), container.optimize());
+		}
+		return bitmap;
+	}
+
+	public void add(int position) {
+		char key = (char) (position >>> 16);
+		int index;
+		if (size > 0 && keys[size - 1] == key) {
+			index = size - 1;
+		} else {
+			index = find(key);
+			if (index < 0) {
+				index = -index - 1;
+				insert(index, key, new Container());
+			}
+		}
+		containers[index] = containers[index].add((char) position);
+	}
+
+	public boolean contains(int position) {
+		int index = find((char) (position >>> 16));
+		return index >= 0 && containers[index].contains((char) position);
+	}
+
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public Bitmap and(Bitmap other) {
+		Bitmap result = new Bitmap();
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				result.append(keys[i], Container.and(containers[i], other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public Bitmap or(Bitmap other) {
+		Bitmap result = new Bitmap();
+		int i = 0;
+		int j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if (i == size || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.append(keys[i], Container.or(containers[i], other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public Bitmap andNot(Bitmap other) {
+		Bitmap result = new Bitmap();
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			while (j < other.size && other.keys[j] < keys[i]) {
+				j++;
+			}
+			if (j < other.size && other.keys[j] == keys[i]) {
+				result.append(keys[i], Container.andNot(containers[i], other.containers[j]));
+			} else {
+				result.append(keys[i], containers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	// all positions from 0 to size - 1 that are not in this bitmap
+	public Bitmap not(int size) {
+		return range(size).andNot(this);
+	}
+
+	public int[] toArray() {
+		int[] positions = new int[getCardinality()];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			n = containers[i].toArray(keys[i] << 16, positions, n);
+		}
+		return positions;
+	}
+
+	private void append(char key, Container container) {
+		if (container.cardinality > 0) {
+			insert(size, key, container);
+		}
+	}
+
+	private void insert(int index, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		size++;
+	}
+
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private static class Container {
+
+		// sorted values of a sparse chunk, null if dense
+		private char[] values = new char[4];
+
+		// bitset of a dense chunk, null if sparse
+		private long[] words;
+
+		private int cardinality = 0;
+
+		private Container add(char value) {
+			if (words != null) {
+				long bit = 1L << value;
+				if ((words[value >>> 6] & bit) == 0) {
+					words[value >>> 6] |= bit;
+					cardinality++;
+				}
+				return this;
+			}
+			int index;
+			if (cardinality == 0 || values[cardinality - 1] < value) {
+				index = cardinality;
+			} else {
+				index = Arrays.binarySearch(values, 0, cardinality, value);
+				if (index >= 0) {
+					return this;
+				}
+				index = -index - 1;
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), ARRAY_MAX + 1));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return optimize();
+		}
+
+		private boolean contains(char value) {
+			if (words != null) {
+				return (words[value >>> 6] & (1L << value)) != 0;
+			}
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		private int toArray(int high, int[] positions, int n) {
+			if (words == null) {
+				for (int i = 0; i < cardinality; i++) {
+					positions[n++] = high | values[i];
+				}
+				return n;
+			}
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					positions[n++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return n;
+		}
+
+		private long[] getWords() {
+			if (words != null) {
+				return words;
+			}
+			long[] result = new long[WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				result[values[i] >>> 6] |= 1L << values[i];
+			}
+			return result;
+		}
+
+		private Container copy() {
+			Container container = new Container();
+			container.cardinality = cardinality;
+			if (words != null) {
+				container.words = words.clone();
+				container.values = null;
+			} else {
+				container.values = Arrays.copyOf(values, cardinality);
+			}
+			return container;
+		}
+
+		// switches between sparse and dense representation
+		private Container optimize() {
+			if (words == null && cardinality > ARRAY_MAX) {
+				words = getWords();
+				values = null;
+			} else if (words != null && cardinality <= ARRAY_MAX) {
+				values = new char[Math.max(cardinality, 4)];
+				toChars(words, values);
+				words = null;
+			}
+			return this;
+		}
+
+		private static Container fromWords(long[] words) {
+			Container container = new Container();
+			container.words = words;
+			container.values = null;
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+			container.cardinality = cardinality;
+			return container.optimize();
+		}
+
+		private static Container fromValues(char[] values, int cardinality) {
+			Container container = new Container();
+			container.values = values;
+			container.cardinality = cardinality;
+			return container.optimize();
+		}
+
+		private static void toChars(long[] words, char[] values) {
+			int n = 0;
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		private static Container and(Container a, Container b) {
+			if (a.words == null || b.words == null) {
+				Container sparse = a.words == null ? a : b;
+				Container other = sparse == a ? b : a;
+				char[] values = new char[sparse.cardinality];
+				int n = 0;
+				for (int i = 0; i < sparse.cardinality; i++) {
+					if (other.contains(sparse.values[i])) {
+						values[n++] = sparse.values[i];
+					}
+				}
+				return fromValues(values, n);
+			}
+			long[] words = new long[WORDS];
+			for (int i = 0; i < WORDS; i++) {
+				words[i] = a.words[i] & b.words[i];
+			}
+			return fromWords(words);
+		}
+
+		private static Container or(Container a, Container b) {
+			if (a.words == null && b.words == null && a.cardinality + b.cardinality <= ARRAY_MAX) {
+				char[] values = new char[a.cardinality + b.cardinality];
+				int i = 0;
+				int j = 0;
+				int n = 0;
+				while (i < a.cardinality || j < b.cardinality) {
+					if (j == b.cardinality || (i < a.cardinality && a.values[i] < b.values[j])) {
+						values[n++] = a.values[i++];
+					} else if (i == a.cardinality || a.values[i] > b.values[j]) {
+						values[n++] = b.values[j++];
+					} else {
+						values[n++] = a.values[i++];
+						j++;
+					}
+				}
+				return fromValues(values, n);
+			}
+			long[] words = a.getWords().clone();
+			long[] other = b.getWords();
+			for (int i = 0; i < WORDS; i++) {
+				words[i] |= other[i];
+			}
+			return fromWords(words);
+		}
+
+		private static Container andNot(Container a, Container b) {
+			if (a.words == null) {
+				char[] values = new char[a.cardinality];
+				int n = 0;
+				for (int i = 0; i < a.cardinality; i++) {
+					if (!b.contains(a.values[i])) {
+						values[n++] = a.values[i];
+					}
+				}
+				return fromValues(values, n);
+			}
+			long[] words = a.words.clone();
+			long[] other = b.getWords();
+			for (int i = 0; i < WORDS; i++) {
+				words[i] &= ~other[i];
+			}
+			return fromWords(words);
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+package lukfor.tables.utils;
+
+import java.util.function.IntConsumer;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+
+// finds rows whose key columns equal the key columns of another row. keys are
+// compared exactly: values are encoded to codes by GroupKeyTable, which packs
+// them into 64-bit keys or compares the codes of the whole key when two hashes
+// collide. the first (or last) row of each key is kept. large tables are
+// partitioned by the hash of their key and every partition is checked on its
+// own thread.
+public class Deduplicator {
+
+	private Table table;
+
+	private String[] columns;
+
+	private boolean keepLast = false;
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	// all columns if no columns are given
+	public Deduplicator(Table table, String... columns) {
+		this.table = table;
+		this.columns = columns.length > 0 ? columns : table.getColumns().getNames();
+	}
+
+	// keeps the last row of each key instead of the first one
+	public Deduplicator withKeepLast(boolean keepLast) {
+		this.keepLast = keepLast;
+		return this;
+	}
+
+	public Deduplicator withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// positions of all rows that are not kept
+	public Bitmap getDuplicates() {
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn[] keyColumns = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			keyColumns[i] = table.getColumn(columns[i]);
+		}
+		final GroupKeyTable keys = new GroupKeyTable(keyColumns, parallel);
+		int size = table.getRows().getSize();
+		final boolean[] duplicates = new boolean[size];
+
+		int chunks = parallel.getChunks(size);
+		if (chunks == 1) {
+			// one table in row order, no partition pass
+			for (int i = 0; i < size; i++) {
+				int row = keepLast ? size - 1 - i : i;
+				int groups = keys.getSize();
+				if (keys.add(row) < groups) {
+					duplicates[row] = true;
+				}
+			}
+		} else {
+			findDuplicates(keys, size, chunks, duplicates);
+		}
+
+		Bitmap bitmap = new Bitmap();
+		for (int row = 0; row < size; row++) {
+			if (duplicates[row]) {
+				bitmap.add(row);
+			}
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log(table, "Found " + bitmap.getCardinality() + " duplicate rows. Time: " + (end - start) + " ms");
+
+		return bitmap;
+
+	}
+
+	// partitions by the hash of the key, every partition is checked on its own
+	// thread
+	private void findDuplicates(final GroupKeyTable keys, int size, int chunks, final boolean[] duplicates) {
+		int partitions = GroupKeyTable.getPartitions(chunks);
+		final int[] starts = new int[partitions + 1];
+		final int[] rows = keys.partition(size, chunks, starts);
+		parallel.forEach(partitions, size, new IntConsumer() {
+			public void accept(int partition) {
+				// rows of a partition are in row order
+				GroupKeyTable partitionKeys = new GroupKeyTable(keys);
+				int from = starts[partition];
+				int to = starts[partition + 1];
+				for (int i = 0; i < to - from; i++) {
+					int row = rows[keepLast ? to - 1 - i : from + i];
+					int groups = partitionKeys.getSize();
+					if (partitionKeys.add(row) < groups) {
+						duplicates[row] = true;
+					}
+				}
+			}
+		});
+	}
+
+}
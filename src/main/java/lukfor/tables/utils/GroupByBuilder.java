@@ -1,13 +1,17 @@
 package lukfor.tables.utils;
 
+import java.util.Arrays;
+
 import lukfor.tables.Table;
+import lukfor.tables.rows.IGroupAggregator;
 import lukfor.tables.rows.IRowAggregator;
 import lukfor.tables.rows.IRowMapper;
-import lukfor.tables.rows.aggregators.CountRowAggregator;
-import lukfor.tables.rows.aggregators.MaxRowAggregator;
-import lukfor.tables.rows.aggregators.MeanRowAggregator;
-import lukfor.tables.rows.aggregators.MinRowAggregator;
-import lukfor.tables.rows.aggregators.SumRowAggregator;
+import lukfor.tables.rows.Row;
+import lukfor.tables.rows.aggregators.CountAggregator;
+import lukfor.tables.rows.aggregators.MaxAggregator;
+import lukfor.tables.rows.aggregators.MeanAggregator;
+import lukfor.tables.rows.aggregators.MinAggregator;
+import lukfor.tables.rows.aggregators.SumAggregator;
 
 public class GroupByBuilder {
 
@@ -15,36 +19,108 @@ public class GroupByBuilder {
 
 	private IRowMapper mapper;
 
-	private String keyColumn;
+	private String[] keyColumns;
+
+	private boolean sorted = false;
+
+	private boolean presorted = false;
 
-	public GroupByBuilder(Table table, IRowMapper mapper, String keyColumn) {
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	private int sampleSize = HashAggregator.SAMPLE_SIZE;
+
+	public GroupByBuilder(Table table, String... keyColumns) {
+		this(table, null, keyColumns);
+	}
+
+	public GroupByBuilder(Table table, IRowMapper mapper, String... keyColumns) {
 		this.table = table;
 		this.mapper = mapper;
-		this.keyColumn = keyColumn;
+		this.keyColumns = keyColumns;
+	}
+
+	// groups in order of their keys instead of their first row
+	public GroupByBuilder sorted() {
+		sorted = true;
+		return this;
+	}
+
+	// rows are already sorted by the key columns: groups are aggregated run by
+	// run without checking the order
+	public GroupByBuilder presorted() {
+		sorted = true;
+		presorted = true;
+		return this;
+	}
+
+	// threads and minimum size of parallel aggregation
+	public GroupByBuilder withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// rows used to estimate the number of groups of a parallel aggregation
+	public GroupByBuilder withSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+		return this;
 	}
 
 	public Table count() {
-		return table.groupBy(mapper, new CountRowAggregator(keyColumn));
+		return aggregate(new CountAggregator());
 	}
 
 	public Table sum(String column) {
-		return table.groupBy(mapper, new SumRowAggregator(keyColumn, column));
+		return aggregate(new SumAggregator(column));
 	}
 
 	public Table mean(String column) {
-		return table.groupBy(mapper, new MeanRowAggregator(keyColumn, column));
+		return aggregate(new MeanAggregator(column));
 	}
 
 	public Table min(String column) {
-		return table.groupBy(mapper, new MinRowAggregator(keyColumn, column));
+		return aggregate(new MinAggregator(column));
 	}
 
 	public Table max(String column) {
-		return table.groupBy(mapper, new MaxRowAggregator(keyColumn, column));
+		return aggregate(new MaxAggregator(column));
+	}
+
+	// all aggregates in one pass, one column per aggregator
+	public Table agg(IGroupAggregator... aggregators) {
+		return aggregate(aggregators);
+	}
+
+	public Table aggregate(IGroupAggregator... aggregators) {
+		if (sorted) {
+			return new RunAggregator(table, mapper, keyColumns).withPresorted(presorted).withParallel(parallel)
+					.aggregate(aggregators);
+		}
+		return new HashAggregator(table, mapper, keyColumns).withParallel(parallel).withSampleSize(sampleSize)
+				.aggregate(aggregators);
 	}
 
+	// materializes every group as a table
 	public Table aggregate(IRowAggregator aggregator) {
-		return table.groupBy(mapper, aggregator);
+		return table.groupBy(getMapper(), aggregator);
+	}
+
+	private IRowMapper getMapper() {
+		if (mapper != null) {
+			return mapper;
+		}
+		return new IRowMapper() {
+			@Override
+			public Object getKey(Row row) {
+				if (keyColumns.length == 1) {
+					return row.getObject(keyColumns[0]);
+				}
+				Object[] key = new Object[keyColumns.length];
+				for (int i = 0; i < keyColumns.length; i++) {
+					key[i] = row.getObject(keyColumns[i]);
+				}
+				return Arrays.asList(key);
+			}
+		};
 	}
 
 }
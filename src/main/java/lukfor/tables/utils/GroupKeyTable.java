@@ -0,0 +1,301 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+
+// maps the (composite) key of a row to a dense group id without creating key
+// objects. every key column is encoded to int codes first: integers with a
+// small range by their offset to the minimum, all other values by a
+// dictionary (built per chunk in parallel and merged for large columns). if
+// the codes of all columns fit into 64 bits they are packed into one long per
+// row, otherwise the codes of each group are stored in an int arena and
+// compared code by code.
+public class GroupKeyTable extends OpenHashTable {
+
+	private int width;
+
+	private int[][] codes;
+
+	private int[] shifts;
+
+	private boolean packed;
+
+	// codes of the key of each group if they are not packed
+	private int[] arena;
+
+	private ParallelUtil parallel;
+
+	public GroupKeyTable(AbstractColumn[] columns) {
+		this(columns, null, ParallelUtil.DEFAULT);
+	}
+
+	public GroupKeyTable(AbstractColumn[] columns, ParallelUtil parallel) {
+		this(columns, null, parallel);
+	}
+
+	public GroupKeyTable(AbstractColumn[] columns, AbstractColumn[] others) {
+		this(columns, others, ParallelUtil.DEFAULT);
+	}
+
+	// keys of two tables with the same codes, e.g. for joins. rows of the others
+	// follow the rows of the columns: row i of the others is row size + i.
+	public GroupKeyTable(AbstractColumn[] columns, AbstractColumn[] others, ParallelUtil parallel) {
+
+		super(16);
+		this.parallel = parallel;
+		width = columns.length;
+		codes = new int[width][];
+		shifts = new int[width];
+		int bits = 0;
+		for (int i = 0; i < width; i++) {
+			Object[] values = columns[i].toArray();
+			boolean integers = columns[i] instanceof IntegerColumn;
+			if (others != null) {
+				Object[] otherValues = others[i].toArray();
+				Object[] all = Arrays.copyOf(values, values.length + otherValues.length);
+				System.arraycopy(otherValues, 0, all, values.length, otherValues.length);
+				values = all;
+				integers = integers && others[i] instanceof IntegerColumn;
+			}
+			int max = encode(values, integers, i);
+			shifts[i] = bits;
+			bits += 32 - Integer.numberOfLeadingZeros(max);
+		}
+
+		packed = bits <= 64;
+		if (!packed) {
+			arena = new int[16 * width];
+		}
+
+	}
+
+	// empty table for the same key codes, e.g. for another thread
+	public GroupKeyTable(GroupKeyTable keys) {
+		super(16);
+		parallel = keys.parallel;
+		width = keys.width;
+		codes = keys.codes;
+		shifts = keys.shifts;
+		packed = keys.packed;
+		if (!packed) {
+			arena = new int[16 * width];
+		}
+	}
+
+	// group of the row, a new group is created for an unknown key. packed keys
+	// are unique, otherwise the key is a hash and the codes are compared.
+	public int add(int row) {
+		return findOrAdd(packed ? packKey(row) : hash(row), row);
+	}
+
+	// group of the row without creating a new group, -1 for an unknown key
+	public int get(int row) {
+		return find(packed ? packKey(row) : hash(row), row);
+	}
+
+	// true if a value of the key is missing
+	public boolean hasMissings(int row) {
+		for (int i = 0; i < width; i++) {
+			if (codes[i][row] == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// hash of the key of the row, equal keys have equal hashes
+	public int getHash(int row) {
+		return (int) mix(packed ? packKey(row) : hash(row));
+	}
+
+	// number of partitions for the given number of chunks, a power of two
+	public static int getPartitions(int chunks) {
+		return Integer.highestOneBit(Math.max(chunks * 4 - 1, 1)) << 1;
+	}
+
+	// rows 0..size-1 sorted by the partition of their hash (stable, counting sort
+	// on chunks in parallel). starts[p] is the first position of partition p,
+	// starts has getPartitions(chunks) + 1 elements.
+	public int[] partition(final int size, final int chunks, final int[] starts) {
+
+		final int partitions = starts.length - 1;
+		final int bits = Integer.numberOfTrailingZeros(partitions);
+
+		final int[] partitionOf = new int[size];
+		final int[][] counts = new int[chunks][partitions];
+		parallel.forEach(chunks, size, new IntConsumer() {
+			public void accept(int chunk) {
+				int end = ParallelUtil.getStart(chunk + 1, chunks, size);
+				for (int row = ParallelUtil.getStart(chunk, chunks, size); row < end; row++) {
+					int partition = bits == 0 ? 0 : getHash(row) >>> (32 - bits);
+					partitionOf[row] = partition;
+					counts[chunk][partition]++;
+				}
+			}
+		});
+		for (int partition = 0; partition < partitions; partition++) {
+			starts[partition + 1] = starts[partition];
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				int count = counts[chunk][partition];
+				counts[chunk][partition] = starts[partition + 1];
+				starts[partition + 1] += count;
+			}
+		}
+		final int[] rows = new int[size];
+		parallel.forEach(chunks, size, new IntConsumer() {
+			public void accept(int chunk) {
+				int end = ParallelUtil.getStart(chunk + 1, chunks, size);
+				for (int row = ParallelUtil.getStart(chunk, chunks, size); row < end; row++) {
+					rows[counts[chunk][partitionOf[row]]++] = row;
+				}
+			}
+		});
+		return rows;
+
+	}
+
+	public boolean isPacked() {
+		return packed;
+	}
+
+	// writes the codes of the column and returns the largest code. missing
+	// values have code 0.
+	private int encode(final Object[] values, boolean integers, int index) {
+
+		final int[] columnCodes = new int[values.length];
+		codes[index] = columnCodes;
+
+		if (integers) {
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (Object value : values) {
+				if (value != null) {
+					min = Math.min(min, (Integer) value);
+					max = Math.max(max, (Integer) value);
+				}
+			}
+			if (max - min < Integer.MAX_VALUE - 1) {
+				for (int i = 0; i < values.length; i++) {
+					columnCodes[i] = values[i] != null ? (int) ((Integer) values[i] - min + 1) : 0;
+				}
+				return min <= max ? (int) (max - min + 1) : 0;
+			}
+		}
+
+		final int chunks = parallel.getChunks(values.length);
+		if (chunks == 1) {
+			return encode(values, columnCodes, 0, values.length).size();
+		}
+
+		// every chunk is encoded with its own dictionary, the dictionaries are
+		// merged in chunk order and the codes are mapped to the merged codes. codes
+		// are the same as with one dictionary (order of first row).
+		final Map<Object, Integer>[] dictionaries = newMaps(chunks);
+		parallel.forEach(chunks, values.length, new IntConsumer() {
+			public void accept(int chunk) {
+				dictionaries[chunk] = encode(values, columnCodes, ParallelUtil.getStart(chunk, chunks, values.length),
+						ParallelUtil.getStart(chunk + 1, chunks, values.length));
+			}
+		});
+		Map<Object, Integer> dictionary = new HashMap<Object, Integer>();
+		final int[][] mappings = new int[chunks][];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			Object[] keys = new Object[dictionaries[chunk].size()];
+			for (Map.Entry<Object, Integer> entry : dictionaries[chunk].entrySet()) {
+				keys[entry.getValue() - 1] = entry.getKey();
+			}
+			mappings[chunk] = new int[keys.length + 1];
+			for (int i = 0; i < keys.length; i++) {
+				Integer code = dictionary.get(keys[i]);
+				if (code == null) {
+					code = dictionary.size() + 1;
+					dictionary.put(keys[i], code);
+				}
+				mappings[chunk][i + 1] = code;
+			}
+			dictionaries[chunk] = null;
+		}
+		parallel.forEach(chunks, values.length, new IntConsumer() {
+			public void accept(int chunk) {
+				int[] mapping = mappings[chunk];
+				int end = ParallelUtil.getStart(chunk + 1, chunks, values.length);
+				for (int i = ParallelUtil.getStart(chunk, chunks, values.length); i < end; i++) {
+					columnCodes[i] = mapping[columnCodes[i]];
+				}
+			}
+		});
+		return dictionary.size();
+
+	}
+
+	// codes of the values [from, to) in order of their first row, missing values
+	// have code 0
+	private static Map<Object, Integer> encode(Object[] values, int[] codes, int from, int to) {
+		Map<Object, Integer> dictionary = new HashMap<Object, Integer>();
+		for (int i = from; i < to; i++) {
+			if (values[i] != null) {
+				Integer code = dictionary.get(values[i]);
+				if (code == null) {
+					code = dictionary.size() + 1;
+					dictionary.put(values[i], code);
+				}
+				codes[i] = code;
+			}
+		}
+		return dictionary;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Integer>[] newMaps(int size) {
+		return new Map[size];
+	}
+
+	private long packKey(int row) {
+		long key = 0;
+		for (int i = 0; i < width; i++) {
+			key |= ((long) codes[i][row]) << shifts[i];
+		}
+		return key;
+	}
+
+	private int hash(int row) {
+		int hash = 1;
+		for (int i = 0; i < width; i++) {
+			hash = 31 * hash + codes[i][row];
+		}
+		return hash;
+	}
+
+	@Override
+	protected boolean equals(int group, int row) {
+		if (packed) {
+			return true;
+		}
+		int offset = group * width;
+		for (int i = 0; i < width; i++) {
+			if (arena[offset + i] != codes[i][row]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected void inserted(int group, int row) {
+		if (packed) {
+			return;
+		}
+		if ((group + 1) * width > arena.length) {
+			arena = Arrays.copyOf(arena, arena.length * 2);
+		}
+		for (int i = 0; i < width; i++) {
+			arena[group * width + i] = codes[i][row];
+		}
+	}
+
+}
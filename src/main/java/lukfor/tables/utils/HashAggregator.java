@@ -0,0 +1,323 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.rows.IGroupAggregator;
+import lukfor.tables.rows.IRowMapper;
+
+// groups all rows in a single pass and aggregates them on the fly: every row is
+// mapped to a dense group id and added to the accumulators of this group. no
+// table is created per group. the result has one row per group (in order of
+// their first row) with the key columns followed by one column per aggregator.
+//
+// large tables grouped by columns are aggregated in parallel: with few groups
+// every thread aggregates a range of rows into its own partial aggregators
+// that are merged afterwards. with many groups rows are partitioned by the hash
+// of their key first, so every thread owns disjoint groups.
+//
+// small tables that are already sorted by the key columns are aggregated run
+// by run without hashing. larger tables are not checked, use sorted() or
+// presorted() of the group by builder for them.
+public class HashAggregator {
+
+	// rows used to estimate the number of groups
+	public static final int SAMPLE_SIZE = 1 << 14;
+
+	private Table table;
+
+	private String[] keyColumns;
+
+	private IRowMapper mapper;
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	private int sampleSize = SAMPLE_SIZE;
+
+	public HashAggregator(Table table, String... keyColumns) {
+		this(table, null, keyColumns);
+	}
+
+	// groups by the keys of the mapper. key columns hold the values of the first
+	// row of each group. mappers are always called on one thread.
+	public HashAggregator(Table table, IRowMapper mapper, String... keyColumns) {
+		this.table = table;
+		this.mapper = mapper;
+		this.keyColumns = keyColumns;
+	}
+
+	public HashAggregator withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// rows used to choose between merging partial aggregates (few groups) and
+	// partitioning rows by key (many groups)
+	public HashAggregator withSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+		return this;
+	}
+
+	public Table aggregate(IGroupAggregator... aggregators) {
+
+		if (mapper == null && table.getRows().getSize() < parallel.getMinSize()
+				&& RunAggregator.isSorted(table, keyColumns)) {
+			return new RunAggregator(table, keyColumns).withPresorted(true).withParallel(parallel).aggregate(aggregators);
+		}
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn[] columns = getColumns();
+		Groups groups = group(columns, aggregators);
+		Table result = createResult(columns, groups, aggregators);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(table, "Aggregated " + table.getRows().getSize() + " rows into " + groups.size + " groups. Time: "
+				+ (end - start) + " ms");
+
+		return result;
+
+	}
+
+	// aggregates the rows into the accumulators without creating a result table,
+	// e.g. to merge the groups of several tables. returns the first row of every
+	// group id.
+	public int[] aggregateGroups(IGroupAggregator... aggregators) {
+		Groups groups = group(getColumns(), aggregators);
+		return Arrays.copyOf(groups.rows, groups.size);
+	}
+
+	private AbstractColumn[] getColumns() {
+		AbstractColumn[] columns = new AbstractColumn[keyColumns.length];
+		for (int i = 0; i < keyColumns.length; i++) {
+			columns[i] = table.getColumn(keyColumns[i]);
+		}
+		return columns;
+	}
+
+	private Groups group(AbstractColumn[] columns, IGroupAggregator[] aggregators) {
+
+		for (IGroupAggregator aggregator : aggregators) {
+			aggregator.init(table);
+		}
+
+		int size = table.getRows().getSize();
+		if (mapper != null) {
+			return aggregateByMapper(size, aggregators);
+		}
+		GroupKeyTable keys = new GroupKeyTable(columns, parallel);
+		int chunks = parallel.getChunks(size);
+		if (chunks == 1) {
+			return aggregateRange(new GroupKeyTable(keys), 0, size, aggregators);
+		} else if (isHighCardinality(keys, size)) {
+			return aggregatePartitions(keys, size, chunks, aggregators);
+		} else {
+			return aggregateChunks(keys, size, chunks, aggregators);
+		}
+
+	}
+
+	private Groups aggregateByMapper(int size, IGroupAggregator[] aggregators) {
+		Groups groups = new Groups();
+		Map<Object, Integer> ids = new HashMap<Object, Integer>();
+		for (int row = 0; row < size; row++) {
+			Object key = mapper.getKey(table.getRow(row));
+			Integer group = ids.get(key);
+			if (group == null) {
+				group = groups.size;
+				ids.put(key, group);
+				groups.add(row, aggregators);
+			}
+			for (IGroupAggregator aggregator : aggregators) {
+				aggregator.add(group, row);
+			}
+		}
+		return groups;
+	}
+
+	private Groups aggregateRange(GroupKeyTable keys, int start, int end, IGroupAggregator[] aggregators) {
+		Groups groups = new Groups();
+		for (int row = start; row < end; row++) {
+			int group = keys.add(row);
+			if (group == groups.size) {
+				groups.add(row, aggregators);
+			}
+			for (IGroupAggregator aggregator : aggregators) {
+				aggregator.add(group, row);
+			}
+		}
+		return groups;
+	}
+
+	private boolean isHighCardinality(GroupKeyTable keys, int size) {
+		GroupKeyTable sample = new GroupKeyTable(keys);
+		int rows = Math.min(size, sampleSize);
+		for (int row = 0; row < rows; row++) {
+			sample.add(row);
+		}
+		return sample.getSize() > rows / 8;
+	}
+
+	// every thread aggregates a range of rows, partials are merged in order of
+	// their ranges
+	private Groups aggregateChunks(final GroupKeyTable keys, final int size, final int chunks,
+			final IGroupAggregator[] aggregators) {
+
+		final IGroupAggregator[][] partials = new IGroupAggregator[chunks][];
+		final Groups[] partialGroups = new Groups[chunks];
+		parallel.forEach(chunks, size, new IntConsumer() {
+			public void accept(int chunk) {
+				partials[chunk] = createPartials(aggregators);
+				partialGroups[chunk] = aggregateRange(new GroupKeyTable(keys), ParallelUtil.getStart(chunk, chunks, size),
+						ParallelUtil.getStart(chunk + 1, chunks, size), partials[chunk]);
+			}
+		});
+
+		Groups groups = new Groups();
+		GroupKeyTable mergedKeys = new GroupKeyTable(keys);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			for (int partialGroup = 0; partialGroup < partialGroups[chunk].size; partialGroup++) {
+				int row = partialGroups[chunk].rows[partialGroup];
+				int group = mergedKeys.add(row);
+				if (group == groups.size) {
+					groups.add(row, aggregators);
+				}
+				for (int i = 0; i < aggregators.length; i++) {
+					aggregators[i].merge(group, partials[chunk][i], partialGroup);
+				}
+			}
+		}
+		return groups;
+
+	}
+
+	// rows are partitioned by the hash of their key, every thread aggregates
+	// whole partitions. groups are ordered by their first row afterwards.
+	private Groups aggregatePartitions(final GroupKeyTable keys, final int size, final int chunks,
+			final IGroupAggregator[] aggregators) {
+
+		final int partitions = GroupKeyTable.getPartitions(chunks);
+		final int[] starts = new int[partitions + 1];
+		final int[] rows = keys.partition(size, chunks, starts);
+
+		final IGroupAggregator[][] partials = new IGroupAggregator[partitions][];
+		final Groups[] partialGroups = new Groups[partitions];
+		parallel.forEach(partitions, size, new IntConsumer() {
+			public void accept(int partition) {
+				GroupKeyTable partitionKeys = new GroupKeyTable(keys);
+				IGroupAggregator[] partial = createPartials(aggregators);
+				Groups groups = new Groups();
+				for (int i = starts[partition]; i < starts[partition + 1]; i++) {
+					int row = rows[i];
+					int group = partitionKeys.add(row);
+					if (group == groups.size) {
+						groups.add(row, partial);
+					}
+					for (IGroupAggregator aggregator : partial) {
+						aggregator.add(group, row);
+					}
+				}
+				partials[partition] = partial;
+				partialGroups[partition] = groups;
+			}
+		});
+
+		// partitions hold disjoint groups: group ids are offsets of the partitions
+		int total = 0;
+		final int[] offsets = new int[partitions];
+		for (int partition = 0; partition < partitions; partition++) {
+			offsets[partition] = total;
+			total += partialGroups[partition].size;
+		}
+		for (IGroupAggregator aggregator : aggregators) {
+			aggregator.ensureCapacity(total);
+		}
+		final int[] firstRows = new int[total];
+		parallel.forEach(partitions, total, new IntConsumer() {
+			public void accept(int partition) {
+				Groups groups = partialGroups[partition];
+				for (int partialGroup = 0; partialGroup < groups.size; partialGroup++) {
+					int group = offsets[partition] + partialGroup;
+					firstRows[group] = groups.rows[partialGroup];
+					for (int i = 0; i < aggregators.length; i++) {
+						aggregators[i].merge(group, partials[partition][i], partialGroup);
+					}
+				}
+			}
+		});
+
+		int[] order = new int[total];
+		for (int group = 0; group < total; group++) {
+			order[group] = group;
+		}
+		Groups groups = new Groups();
+		groups.rows = firstRows;
+		groups.size = total;
+		groups.order = ColumnSorter.radixSort(firstRows.clone(), order, parallel);
+		return groups;
+
+	}
+
+	private static IGroupAggregator[] createPartials(IGroupAggregator[] aggregators) {
+		IGroupAggregator[] partials = new IGroupAggregator[aggregators.length];
+		for (int i = 0; i < aggregators.length; i++) {
+			partials[i] = aggregators[i].createPartial();
+		}
+		return partials;
+	}
+
+	private Table createResult(AbstractColumn[] columns, Groups groups, IGroupAggregator[] aggregators) {
+
+		// columns are appended empty and filled afterwards
+		Table result = new Table(table.getName() + ":grouped");
+		AbstractColumn[] keys = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			keys[i] = result.getColumns().append(columns[i].cloneStructure());
+		}
+		AbstractColumn[] values = new AbstractColumn[aggregators.length];
+		for (int i = 0; i < aggregators.length; i++) {
+			values[i] = result.getColumns().append(aggregators[i].createColumn());
+		}
+
+		for (int n = 0; n < groups.size; n++) {
+			int group = groups.order != null ? groups.order[n] : n;
+			for (int i = 0; i < columns.length; i++) {
+				keys[i].add(columns[i].get(groups.rows[group]));
+			}
+			for (int i = 0; i < aggregators.length; i++) {
+				values[i].add(aggregators[i].get(group));
+			}
+		}
+		return result;
+
+	}
+
+	// first row of each group
+	private static class Groups {
+
+		private int[] rows = new int[0];
+
+		private int size = 0;
+
+		// output order of the groups, null if ordered by id
+		private int[] order;
+
+		private void add(int row, IGroupAggregator[] aggregators) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, Math.max(size * 2, 16));
+				for (IGroupAggregator aggregator : aggregators) {
+					aggregator.ensureCapacity(rows.length);
+				}
+			}
+			rows[size++] = row;
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class IndexUtil {
+
+	// maps each old position to its new position or -1 if the row was removed
+	public static int[] inverse(int[] positions, int size) {
+		int[] mapping = new int[size];
+		Arrays.fill(mapping, -1);
+		for (int i = 0; i < positions.length; i++) {
+			mapping[positions[i]] = i;
+		}
+		return mapping;
+	}
+
+	// number of old positions that are still used, less than the number of
+	// positions if a row was selected more than once
+	public static int count(int[] mapping) {
+		int count = 0;
+		for (int position : mapping) {
+			if (position != -1) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// positions of all rows with bitmask value 'value'
+	public static int[] toPositions(List<Boolean> bitmask, boolean value) {
+		int count = 0;
+		for (int i = 0; i < bitmask.size(); i++) {
+			if (bitmask.get(i) == value) {
+				count++;
+			}
+		}
+		int[] positions = new int[count];
+		int j = 0;
+		for (int i = 0; i < bitmask.size(); i++) {
+			if (bitmask.get(i) == value) {
+				positions[j++] = i;
+			}
+		}
+		return positions;
+	}
+
+	public static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+}
@@ -0,0 +1,648 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.ITableIndex;
+import lukfor.tables.rows.SortedTableIndex;
+
+// joins two tables into a new table. keys of both tables are encoded with the
+// same codes, the smaller table is stored in a multi-map (first row of each key
+// and next row with the same key) and the other table is probed row by row.
+// the join produces pairs of row positions and every result column is gathered
+// in one pass afterwards. rows with missing keys never match.
+//
+// large tables are joined in parallel: rows of both tables are partitioned by
+// the hash of their keys and every partition is joined on its own.
+//
+// tables that are both sorted by their keys (or have a sorted index on a single
+// key column) are joined by merging them in key order instead, without a hash
+// table. only small tables are checked for sorted keys, larger tables need an
+// index or sortMerge(). sorted tables are merged in row order and need only snapshots of their
+// key columns besides the pairs; indexes or sortMerge() on unsorted tables add
+// an order array per table and a sort of the pairs into the result order. both
+// strategies return the same result.
+//
+// the result has the rows of the left table in their order (each followed by
+// all its matches in the order of the right table) and then the unmatched rows
+// of the right table. key columns appear once, followed by the other columns of
+// the left and of the right table.
+public class JoinBuilder {
+
+	private Table left;
+
+	private Table right;
+
+	private String[] leftColumns;
+
+	private String[] rightColumns;
+
+	// rows of the smaller table per partition of a parallel join
+	public static final int PARTITION_SIZE = 1 << 14;
+
+	public static final int MAX_PARTITIONS = 1 << 14;
+
+	private String suffix = "_2";
+
+	private boolean sortMerge = false;
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	private int partitionSize = PARTITION_SIZE;
+
+	private int maxPartitions = MAX_PARTITIONS;
+
+	public JoinBuilder(Table left, Table right) {
+		this.left = left;
+		this.right = right;
+	}
+
+	// key columns with the same names in both tables
+	public JoinBuilder on(String... columns) {
+		return on(columns, columns);
+	}
+
+	public JoinBuilder on(String[] leftColumns, String[] rightColumns) {
+		if (leftColumns.length == 0 || leftColumns.length != rightColumns.length) {
+			throw new TableException("Both tables need the same number of key columns.");
+		}
+		this.leftColumns = leftColumns;
+		this.rightColumns = rightColumns;
+		return this;
+	}
+
+	// appended to columns of the right table that exist in the left table
+	public JoinBuilder withSuffix(String suffix) {
+		this.suffix = suffix;
+		return this;
+	}
+
+	// threads and minimum size of parallel joins
+	public JoinBuilder withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	// rows of the smaller table per partition of a parallel join, smaller
+	// partitions keep their hash tables in cache
+	public JoinBuilder withPartitionSize(int partitionSize) {
+		this.partitionSize = partitionSize;
+		return this;
+	}
+
+	public JoinBuilder withMaxPartitions(int maxPartitions) {
+		this.maxPartitions = maxPartitions;
+		return this;
+	}
+
+	// merges the tables in key order, unsorted tables are sorted first
+	public JoinBuilder sortMerge() {
+		sortMerge = true;
+		return this;
+	}
+
+	public Table inner() {
+		return type(JoinType.INNER);
+	}
+
+	public Table left() {
+		return type(JoinType.LEFT);
+	}
+
+	public Table right() {
+		return type(JoinType.RIGHT);
+	}
+
+	public Table full() {
+		return type(JoinType.FULL);
+	}
+
+	public Table type(JoinType type) {
+
+		if (leftColumns == null) {
+			throw new TableException("No key columns set.");
+		}
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn[] leftKeys = getColumns(left, leftColumns);
+		AbstractColumn[] rightKeys = getColumns(right, rightColumns);
+		for (int i = 0; i < leftKeys.length; i++) {
+			if (leftKeys[i].getClass() != rightKeys[i].getClass()) {
+				throw new TableException("Key columns '" + leftColumns[i] + "' and '" + rightColumns[i]
+						+ "' have different types.");
+			}
+		}
+
+		int[] leftOrder = getIndexOrder(left, leftKeys);
+		boolean leftSorted = leftOrder != null || isSorted(left, leftKeys);
+		int[] rightOrder = null;
+		boolean rightSorted = false;
+		if (leftSorted || sortMerge) {
+			rightOrder = getIndexOrder(right, rightKeys);
+			rightSorted = rightOrder != null || isSorted(right, rightKeys);
+		}
+		Pairs pairs;
+		if (sortMerge || (leftSorted && rightSorted)) {
+			Object[][] leftData = toArrays(leftKeys);
+			Object[][] rightData = toArrays(rightKeys);
+			if (!leftSorted) {
+				leftOrder = sort(leftKeys, leftData);
+			}
+			if (!rightSorted) {
+				rightOrder = sort(rightKeys, rightData);
+			}
+			pairs = mergeJoin(leftKeys, leftData, leftOrder, rightData, rightOrder, type);
+		} else {
+			pairs = hashJoin(new GroupKeyTable(leftKeys, rightKeys, parallel), type);
+		}
+		Table result = createResult(pairs);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(left, type + " join with table " + right.getName() + " on " + Arrays.toString(leftColumns) + "="
+				+ Arrays.toString(rightColumns) + ". New size [" + result.getRows().getSize() + " x "
+				+ result.getColumns().getSize() + "]. Time: " + (end - start) + " ms");
+
+		return result;
+
+	}
+
+	// large tables are partitioned by the hash of their keys (rows of both tables
+	// together) and every partition is joined on its own thread with a hash
+	// table small enough to stay in cache. the pairs of all partitions are
+	// copied to their offsets in the result and sorted into the output order.
+	private Pairs hashJoin(final GroupKeyTable keys, final JoinType type) {
+
+		final int leftSize = left.getRows().getSize();
+		int rightSize = right.getRows().getSize();
+		int size = leftSize + rightSize;
+
+		int chunks = parallel.getChunks(size);
+		int partitions = 1;
+		if (chunks > 1) {
+			partitions = GroupKeyTable.getPartitions(chunks);
+			while (partitions < maxPartitions && (long) partitions * partitionSize < Math.min(leftSize, rightSize)) {
+				partitions *= 2;
+			}
+		}
+		final int[] starts = new int[partitions + 1];
+		final int[] rows;
+		if (partitions > 1) {
+			rows = keys.partition(size, chunks, starts);
+		} else {
+			rows = null;
+			starts[1] = size;
+		}
+
+		// rows of a partition are in row order, left rows first
+		final Pairs[] matches = new Pairs[partitions];
+		final Pairs[] rightOnly = new Pairs[partitions];
+		parallel.forEach(partitions, size, new IntConsumer() {
+			public void accept(int partition) {
+				int from = starts[partition];
+				int to = starts[partition + 1];
+				int split = from;
+				while (split < to && (rows != null ? rows[split] : split) < leftSize) {
+					split++;
+				}
+				matches[partition] = new Pairs();
+				rightOnly[partition] = new Pairs();
+				joinPartition(new GroupKeyTable(keys), rows, from, split, to, leftSize, type, matches[partition],
+						rightOnly[partition]);
+			}
+		});
+
+		Pairs pairs = concat(matches);
+		if (!pairs.isSorted(true)) {
+			pairs = pairs.sortByLeft(parallel);
+		}
+		Pairs unmatched = concat(rightOnly);
+		if (!unmatched.isSorted(false)) {
+			unmatched = unmatched.swap().sortByLeft(parallel).swap();
+		}
+		pairs.append(unmatched);
+		return pairs;
+
+	}
+
+	// joins the left rows [from, split) and the right rows [split, to) of rows (all
+	// rows in order if null). the smaller side is the build side.
+	private static void joinPartition(GroupKeyTable keys, int[] rows, int from, int split, int to, int leftSize,
+			JoinType type, Pairs matches, Pairs rightOnly) {
+
+		boolean keepLeft = type == JoinType.LEFT || type == JoinType.FULL;
+		boolean keepRight = type == JoinType.RIGHT || type == JoinType.FULL;
+
+		boolean buildLeft = split - from < to - split;
+		int buildFrom = buildLeft ? from : split;
+		int buildSize = buildLeft ? split - from : to - split;
+		int probeFrom = buildLeft ? split : from;
+		int probeSize = buildLeft ? to - split : split - from;
+		boolean keepBuild = buildLeft ? keepLeft : keepRight;
+		boolean keepProbe = buildLeft ? keepRight : keepLeft;
+
+		// rows are inserted backwards, so every chain is in row order
+		int[] heads = new int[buildSize];
+		int[] next = new int[buildSize];
+		for (int i = buildSize - 1; i >= 0; i--) {
+			int row = rows != null ? rows[buildFrom + i] : buildFrom + i;
+			if (keys.hasMissings(row)) {
+				continue;
+			}
+			int groups = keys.getSize();
+			int group = keys.add(row);
+			next[i] = group < groups ? heads[group] : -1;
+			heads[group] = i;
+		}
+
+		boolean[] matched = new boolean[keepBuild ? buildSize : 0];
+		for (int i = 0; i < probeSize; i++) {
+			int row = rows != null ? rows[probeFrom + i] : probeFrom + i;
+			int group = keys.hasMissings(row) ? -1 : keys.get(row);
+			if (group >= 0) {
+				for (int j = heads[group]; j >= 0; j = next[j]) {
+					int other = rows != null ? rows[buildFrom + j] : buildFrom + j;
+					if (buildLeft) {
+						matches.add(other, row - leftSize);
+					} else {
+						matches.add(row, other - leftSize);
+					}
+					if (keepBuild) {
+						matched[j] = true;
+					}
+				}
+			} else if (keepProbe) {
+				if (buildLeft) {
+					rightOnly.add(-1, row - leftSize);
+				} else {
+					matches.add(row, -1);
+				}
+			}
+		}
+		for (int j = 0; j < matched.length; j++) {
+			if (!matched[j]) {
+				int row = rows != null ? rows[buildFrom + j] : buildFrom + j;
+				if (buildLeft) {
+					matches.add(row, -1);
+				} else {
+					rightOnly.add(-1, row - leftSize);
+				}
+			}
+		}
+
+	}
+
+	// copies the pairs of all partitions to their offsets
+	private Pairs concat(final Pairs[] partitions) {
+		if (partitions.length == 1) {
+			return partitions[0];
+		}
+		final int[] offsets = new int[partitions.length];
+		int size = 0;
+		for (int i = 0; i < partitions.length; i++) {
+			offsets[i] = size;
+			size += partitions[i].size;
+		}
+		final Pairs pairs = new Pairs();
+		pairs.left = new int[size];
+		pairs.right = new int[size];
+		pairs.size = size;
+		parallel.forEach(partitions.length, size, new IntConsumer() {
+			public void accept(int i) {
+				System.arraycopy(partitions[i].left, 0, pairs.left, offsets[i], partitions[i].size);
+				System.arraycopy(partitions[i].right, 0, pairs.right, offsets[i], partitions[i].size);
+			}
+		});
+		return pairs;
+	}
+
+	// orders hold the rows without missing keys in ascending key order, a null
+	// order stands for all rows of a table that is sorted by its keys (rows with
+	// missing keys are skipped in place). equal keys form runs on both sides,
+	// every pair of a left and a right run is a match. pairs are only sorted
+	// into the hash join order if they are not in row order already.
+	private Pairs mergeJoin(AbstractColumn[] keys, Object[][] leftData, int[] leftOrder, Object[][] rightData,
+			int[] rightOrder, JoinType type) {
+
+		boolean keepLeft = type == JoinType.LEFT || type == JoinType.FULL;
+		boolean keepRight = type == JoinType.RIGHT || type == JoinType.FULL;
+		int leftSize = leftOrder != null ? leftOrder.length : leftData[0].length;
+		int rightSize = rightOrder != null ? rightOrder.length : rightData[0].length;
+
+		Pairs pairs = new Pairs();
+		Pairs rightOnly = new Pairs();
+		Pairs leftMissings = keepLeft ? pairs : null;
+		Pairs rightMissings = keepRight ? rightOnly : null;
+		int i = skip(leftData, leftOrder, 0, leftMissings, true);
+		int j = skip(rightData, rightOrder, 0, rightMissings, false);
+		while (i < leftSize && j < rightSize) {
+			int leftRow = getRow(leftOrder, i);
+			int rightRow = getRow(rightOrder, j);
+			int compare = compare(keys, leftData, leftRow, rightData, rightRow);
+			if (compare < 0) {
+				if (keepLeft) {
+					pairs.add(leftRow, -1);
+				}
+				i = skip(leftData, leftOrder, i + 1, leftMissings, true);
+			} else if (compare > 0) {
+				if (keepRight) {
+					rightOnly.add(-1, rightRow);
+				}
+				j = skip(rightData, rightOrder, j + 1, rightMissings, false);
+			} else {
+				int leftEnd = getRunEnd(keys, leftData, leftOrder, i);
+				int rightEnd = getRunEnd(keys, rightData, rightOrder, j);
+				for (int a = i; a < leftEnd; a++) {
+					for (int b = j; b < rightEnd; b++) {
+						pairs.add(getRow(leftOrder, a), getRow(rightOrder, b));
+					}
+				}
+				i = skip(leftData, leftOrder, leftEnd, leftMissings, true);
+				j = skip(rightData, rightOrder, rightEnd, rightMissings, false);
+			}
+		}
+		while (keepLeft && i < leftSize) {
+			pairs.add(getRow(leftOrder, i), -1);
+			i = skip(leftData, leftOrder, i + 1, leftMissings, true);
+		}
+		while (keepRight && j < rightSize) {
+			rightOnly.add(-1, getRow(rightOrder, j));
+			j = skip(rightData, rightOrder, j + 1, rightMissings, false);
+		}
+
+		// rows with missing keys are not part of the orders
+		if (keepLeft && leftOrder != null) {
+			addMissings(leftData, pairs, true);
+		}
+		if (keepRight && rightOrder != null) {
+			addMissings(rightData, rightOnly, false);
+		}
+
+		// same order as the hash join
+		if (!pairs.isSorted(true)) {
+			pairs = pairs.sortByLeft(parallel);
+		}
+		if (!rightOnly.isSorted(false)) {
+			rightOnly = rightOnly.swap().sortByLeft(parallel).swap();
+		}
+		pairs.append(rightOnly);
+		return pairs;
+
+	}
+
+	private static int getRow(int[] order, int i) {
+		return order != null ? order[i] : i;
+	}
+
+	// first position from i on with a row without missing keys. rows of a null
+	// order with missing keys are added to the unmatched pairs (if not null).
+	private static int skip(Object[][] data, int[] order, int i, Pairs unmatched, boolean left) {
+		if (order != null) {
+			return i;
+		}
+		while (i < data[0].length && hasMissings(data, i)) {
+			if (unmatched != null) {
+				unmatched.add(left ? i : -1, left ? -1 : i);
+			}
+			i++;
+		}
+		return i;
+	}
+
+	// end of the run of rows with the same key as the row at position i
+	private static int getRunEnd(AbstractColumn[] keys, Object[][] data, int[] order, int i) {
+		int size = order != null ? order.length : data[0].length;
+		int row = getRow(order, i);
+		int end = i + 1;
+		while (end < size && (order != null || !hasMissings(data, end))
+				&& compare(keys, data, row, data, getRow(order, end)) == 0) {
+			end++;
+		}
+		return end;
+	}
+
+	// positions of a sorted index on a single key column (rows with missing keys
+	// are not indexed), else null
+	private static int[] getIndexOrder(Table table, AbstractColumn[] keys) {
+		if (keys.length == 1) {
+			for (ITableIndex index : table.getIndexes()) {
+				if (index instanceof SortedTableIndex && ((SortedTableIndex) index).getColumn() == keys[0]) {
+					return ((SortedTableIndex) index).getPositions();
+				}
+			}
+		}
+		return null;
+	}
+
+	// true if the rows are in ascending order of the keys. larger tables are not
+	// scanned before every join, they are merged only with an index.
+	private boolean isSorted(Table table, AbstractColumn[] keys) {
+		if (table.getRows().getSize() >= parallel.getMinSize()) {
+			return false;
+		}
+		String[] names = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			names[i] = keys[i].getName();
+		}
+		return RunAggregator.isSorted(table, names);
+	}
+
+	// rows without missing keys in ascending key order
+	private int[] sort(AbstractColumn[] keys, Object[][] data) {
+		SortKey[] sortKeys = new SortKey[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			sortKeys[i] = SortKey.asc(keys[i].getName());
+		}
+		int[] rows = new ColumnSorter(keys, sortKeys).withParallel(parallel).getPositions();
+		int[] result = new int[rows.length];
+		int count = 0;
+		for (int row : rows) {
+			if (!hasMissings(data, row)) {
+				result[count++] = row;
+			}
+		}
+		return count < rows.length ? Arrays.copyOf(result, count) : result;
+	}
+
+	private static void addMissings(Object[][] data, Pairs pairs, boolean left) {
+		for (int row = 0; row < data[0].length; row++) {
+			if (hasMissings(data, row)) {
+				pairs.add(left ? row : -1, left ? -1 : row);
+			}
+		}
+	}
+
+	private static boolean hasMissings(Object[][] data, int row) {
+		for (Object[] values : data) {
+			if (values[row] == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int compare(AbstractColumn[] keys, Object[][] data1, int row1, Object[][] data2, int row2) {
+		for (int i = 0; i < keys.length; i++) {
+			int compare = keys[i].compare(data1[i][row1], data2[i][row2]);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return 0;
+	}
+
+	private static Object[][] toArrays(AbstractColumn[] columns) {
+		Object[][] data = new Object[columns.length][];
+		for (int i = 0; i < columns.length; i++) {
+			data[i] = columns[i].toArray();
+		}
+		return data;
+	}
+
+	// result columns are gathered in parallel
+	private Table createResult(final Pairs pairs) {
+
+		final int leftColumnCount = left.getColumns().getSize();
+		final AbstractColumn[] sources = new AbstractColumn[leftColumnCount + right.getColumns().getSize()];
+		final AbstractColumn[] others = new AbstractColumn[sources.length];
+		int count = 0;
+		for (int i = 0; i < leftColumnCount; i++) {
+			sources[count] = left.getColumn(i);
+			int key = indexOf(leftColumns, sources[count].getName());
+			others[count] = key >= 0 ? right.getColumn(rightColumns[key]) : null;
+			count++;
+		}
+		for (int i = 0; i < right.getColumns().getSize(); i++) {
+			AbstractColumn column = right.getColumn(i);
+			if (indexOf(rightColumns, column.getName()) < 0) {
+				sources[count++] = column;
+			}
+		}
+
+		final AbstractColumn[] targets = new AbstractColumn[count];
+		parallel.forEach(count, (long) count * pairs.size, new IntConsumer() {
+			public void accept(int i) {
+				if (i < leftColumnCount) {
+					targets[i] = gather(sources[i], pairs.left, others[i], pairs.right, pairs.size);
+				} else {
+					targets[i] = gather(sources[i], pairs.right, null, null, pairs.size);
+				}
+			}
+		});
+
+		Table result = new Table(left.getName() + ":" + right.getName());
+		for (int i = 0; i < count; i++) {
+			if (i >= leftColumnCount && indexOf(result.getColumns().getNames(), targets[i].getName()) >= 0) {
+				targets[i].setName(targets[i].getName() + suffix);
+			}
+			result.getColumns().append(targets[i], null);
+		}
+		return result;
+
+	}
+
+	// values of the rows of the column, of the other column for rows without a
+	// row in the column (missing if there is no other column)
+	private static AbstractColumn gather(AbstractColumn column, int[] rows, AbstractColumn other, int[] otherRows,
+			int size) {
+		Object[] values = column.toArray();
+		Object[] otherValues = other != null ? other.toArray() : null;
+		AbstractColumn target = column.cloneStructure();
+		for (int i = 0; i < size; i++) {
+			if (rows[i] >= 0) {
+				target.add(values[rows[i]]);
+			} else {
+				target.add(otherValues != null ? otherValues[otherRows[i]] : null);
+			}
+		}
+		return target;
+	}
+
+	private static AbstractColumn[] getColumns(Table table, String[] names) {
+		AbstractColumn[] columns = new AbstractColumn[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = table.getColumn(names[i]);
+		}
+		return columns;
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// positions of matched rows, -1 if a row has no partner
+	private static class Pairs {
+
+		private int[] left = new int[16];
+
+		private int[] right = new int[16];
+
+		private int size = 0;
+
+		private void add(int leftRow, int rightRow) {
+			if (size == left.length) {
+				left = Arrays.copyOf(left, size * 2);
+				right = Arrays.copyOf(right, size * 2);
+			}
+			left[size] = leftRow;
+			right[size] = rightRow;
+			size++;
+		}
+
+		private void append(Pairs pairs) {
+			for (int i = 0; i < pairs.size; i++) {
+				add(pairs.left[i], pairs.right[i]);
+			}
+		}
+
+		// left and right rows exchanged
+		private Pairs swap() {
+			Pairs swapped = new Pairs();
+			swapped.left = right;
+			swapped.right = left;
+			swapped.size = size;
+			return swapped;
+		}
+
+		private boolean isSorted(boolean byLeft) {
+			int[] rows = byLeft ? left : right;
+			for (int i = 1; i < size; i++) {
+				if (rows[i - 1] > rows[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// stable, rows without a left row (-1 is the largest unsigned key) last
+		private Pairs sortByLeft(ParallelUtil parallel) {
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			order = ColumnSorter.radixSort(Arrays.copyOf(left, size), order, parallel);
+			Pairs sorted = new Pairs();
+			sorted.left = new int[size];
+			sorted.right = new int[size];
+			for (int i = 0; i < size; i++) {
+				sorted.left[i] = left[order[i]];
+				sorted.right[i] = right[order[i]];
+			}
+			sorted.size = size;
+			return sorted;
+		}
+
+	}
+
+}
@@ -0,0 +1,9 @@
+package lukfor.tables.utils;
+
+// rows of the result of a join: matched pairs only (INNER), all rows of the
+// left (LEFT), right (RIGHT) or both tables (FULL)
+public enum JoinType {
+
+	INNER, LEFT, RIGHT, FULL
+
+}
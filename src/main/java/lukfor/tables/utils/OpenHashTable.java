@@ -0,0 +1,162 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+
+// open addressing hash table with linear probing that maps keys to dense group
+// ids. every group stores a 64-bit key (a packed key or a hash) and its first
+// row. subclasses decide if a row is equal to a group with the same key, e.g.
+// by comparing column values or codes.
+public abstract class OpenHashTable {
+
+	// group id + 1 for each slot, 0 means empty
+	private int[] slots;
+
+	private int mask;
+
+	private long[] keys;
+
+	private int[] rows;
+
+	private int size = 0;
+
+	protected OpenHashTable(int expectedSize) {
+		int capacity = Math.max(expectedSize, 8);
+		slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+		mask = slots.length - 1;
+		keys = new long[capacity];
+		rows = new int[capacity];
+	}
+
+	protected OpenHashTable(int[] slots, long[] keys, int[] rows) {
+		this.slots = slots;
+		this.mask = slots.length - 1;
+		this.keys = keys;
+		this.rows = rows;
+		this.size = rows.length;
+	}
+
+	// true if the row is equal to the group, called for groups with the same key
+	protected abstract boolean equals(int group, int row);
+
+	// called for a new group before it is added to the slots
+	protected void inserted(int group, int row) {
+	}
+
+	// group of the row, a new group is created for an unknown key
+	protected int findOrAdd(long key, int row) {
+		int slot = getSlot(key);
+		int group;
+		while ((group = slots[slot] - 1) >= 0) {
+			if (keys[group] == key && equals(group, row)) {
+				return group;
+			}
+			slot = nextSlot(slot);
+		}
+		return insert(slot, key, row);
+	}
+
+	// group of the row without creating a new group, -1 for an unknown key
+	protected int find(long key, int row) {
+		int slot = getSlot(key);
+		int group;
+		while ((group = slots[slot] - 1) >= 0) {
+			if (keys[group] == key && equals(group, row)) {
+				return group;
+			}
+			slot = nextSlot(slot);
+		}
+		return -1;
+	}
+
+	// adds a row whose key is known to be not in the table yet
+	protected int addUnique(long key, int row) {
+		int slot = getSlot(key);
+		while (slots[slot] != 0) {
+			slot = nextSlot(slot);
+		}
+		return insert(slot, key, row);
+	}
+
+	// probing for lookups that are not rows: first slot of the key, the next
+	// slot and the group in a slot (-1 if empty)
+	protected int getSlot(long key) {
+		return (int) mix(key) & mask;
+	}
+
+	protected int nextSlot(int slot) {
+		return (slot + 1) & mask;
+	}
+
+	protected int getGroup(int slot) {
+		return slots[slot] - 1;
+	}
+
+	protected long getKey(int group) {
+		return keys[group];
+	}
+
+	protected void setRow(int group, int row) {
+		rows[group] = row;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	// first row of the group
+	public int getRow(int group) {
+		return rows[group];
+	}
+
+	public int[] getSlots() {
+		return slots;
+	}
+
+	public long[] getKeys() {
+		return Arrays.copyOf(keys, size);
+	}
+
+	public int[] getRows() {
+		return Arrays.copyOf(rows, size);
+	}
+
+	private int insert(int slot, long key, int row) {
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, Math.max(size * 2, 8));
+			keys = Arrays.copyOf(keys, rows.length);
+		}
+		int group = size++;
+		rows[group] = row;
+		keys[group] = key;
+		inserted(group, row);
+		slots[slot] = group + 1;
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return group;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		mask = slots.length - 1;
+		for (int group = 0; group < size; group++) {
+			int slot = getSlot(keys[group]);
+			while (slots[slot] != 0) {
+				slot = nextSlot(slot);
+			}
+			slots[slot] = group + 1;
+		}
+	}
+
+	// murmur3 finalizer, spreads the bits of weak keys (e.g. Integer) over all
+	// slots
+	public static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+}
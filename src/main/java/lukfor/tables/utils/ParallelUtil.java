@@ -0,0 +1,56 @@
+package lukfor.tables.utils;
+
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// settings for data parallel work: the number of chunks large arrays are split
+// into and the size below which all work is done on the calling thread.
+// builders use DEFAULT unless other settings are set with withParallel.
+public class ParallelUtil {
+
+	// below this number of values all work is done on the calling thread
+	public static final int MIN_SIZE = 1 << 15;
+
+	public static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	public static final ParallelUtil DEFAULT = new ParallelUtil(THREADS, MIN_SIZE);
+
+	private final int threads;
+
+	private final int minSize;
+
+	public ParallelUtil(int threads, int minSize) {
+		this.threads = Math.max(1, threads);
+		this.minSize = Math.max(1, minSize);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	// number of chunks an array of the given size is split into
+	public int getChunks(int size) {
+		return Math.max(1, Math.min(threads, size / minSize));
+	}
+
+	public static int getStart(int chunk, int chunks, int size) {
+		return (int) ((long) size * chunk / chunks);
+	}
+
+	// runs the tasks 0..tasks-1 on the common fork/join pool and waits until all
+	// are done. work is the total number of values touched by all tasks.
+	public void forEach(int tasks, long work, IntConsumer task) {
+		if (tasks <= 1 || work < minSize) {
+			for (int i = 0; i < tasks; i++) {
+				task.accept(i);
+			}
+		} else {
+			IntStream.range(0, tasks).parallel().forEach(task);
+		}
+	}
+
+}
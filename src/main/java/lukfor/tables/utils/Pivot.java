@@ -0,0 +1,143 @@
+package lukfor.tables.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.rows.IGroupAggregator;
+
+// spreads the values of a column key into columns: one row per row key (in
+// order of their first row), one column per column key (in sort order) and the
+// aggregate of all rows with both keys in each cell. all cells are aggregated
+// in one pass, cell ids are row id * columns + column id. rows with a missing
+// column key are ignored. a column named like the row key is prefixed with the
+// name of the column key, other equal names fail.
+public class Pivot {
+
+	public static final int MAX_COLUMNS = 1000;
+
+	private Table table;
+
+	private String rowKey;
+
+	private String columnKey;
+
+	private int maxColumns = MAX_COLUMNS;
+
+	public Pivot(Table table, String rowKey, String columnKey) {
+		this.table = table;
+		this.rowKey = rowKey;
+		this.columnKey = columnKey;
+	}
+
+	// fails if the column key has more distinct values
+	public Pivot withMaxColumns(int maxColumns) {
+		this.maxColumns = maxColumns;
+		return this;
+	}
+
+	public Table aggregate(IGroupAggregator aggregator) {
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn rowColumn = table.getColumn(rowKey);
+		AbstractColumn keyColumn = table.getColumn(columnKey);
+		Object[] keyValues = keyColumn.toArray();
+		int size = keyValues.length;
+
+		// ids of the column keys, sorted by key
+		GroupKeyTable columnKeys = new GroupKeyTable(new AbstractColumn[] { keyColumn });
+		int[] columnIds = new int[size];
+		for (int row = 0; row < size; row++) {
+			if (keyValues[row] == null) {
+				columnIds[row] = -1;
+				continue;
+			}
+			columnIds[row] = columnKeys.add(row);
+			if (columnKeys.getSize() > maxColumns) {
+				throw new TableException("Column '" + columnKey + "' has more than " + maxColumns
+						+ " distinct values. Use withMaxColumns to allow more columns.");
+			}
+		}
+		int columns = columnKeys.getSize();
+		int[] firstRows = new int[columns];
+		for (int id = 0; id < columns; id++) {
+			firstRows[id] = columnKeys.getRow(id);
+		}
+		int[] sorted = ColumnSorter.sort(keyColumn, firstRows.clone(), ColumnSorter.SORT_ASCEND);
+		int[] ids = new int[columns];
+		for (int i = 0; i < columns; i++) {
+			ids[i] = columnKeys.add(sorted[i]);
+		}
+		String[] names = getNames(keyColumn, keyValues, sorted);
+
+		// one pass over all rows
+		aggregator.init(table);
+		GroupKeyTable rowKeys = new GroupKeyTable(new AbstractColumn[] { rowColumn });
+		int capacity = 0;
+		for (int row = 0; row < size; row++) {
+			if (columnIds[row] < 0) {
+				continue;
+			}
+			int rowId = rowKeys.add(row);
+			long cell = (long) rowId * columns + columnIds[row];
+			if (cell >= capacity) {
+				if (cell >= Integer.MAX_VALUE / 2) {
+					throw new TableException("Pivot table has too many cells.");
+				}
+				capacity = Math.max(capacity * 2, (rowId + 1) * columns);
+				aggregator.ensureCapacity(capacity);
+			}
+			aggregator.add((int) cell, row);
+		}
+		int rows = rowKeys.getSize();
+		aggregator.ensureCapacity(Math.max(capacity, rows * columns));
+
+		// columns are filled first and appended afterwards
+		Table result = new Table(table.getName() + ":pivot");
+		AbstractColumn keys = rowColumn.cloneStructure();
+		for (int rowId = 0; rowId < rows; rowId++) {
+			keys.add(rowColumn.get(rowKeys.getRow(rowId)));
+		}
+		result.getColumns().append(keys, null);
+		for (int i = 0; i < columns; i++) {
+			AbstractColumn values = aggregator.createColumn();
+			values.setName(names[i]);
+			for (int rowId = 0; rowId < rows; rowId++) {
+				values.add(aggregator.get(rowId * columns + ids[i]));
+			}
+			result.getColumns().append(values, null);
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log(table, "Pivoted " + size + " rows into " + rows + " rows and " + columns + " columns. Time: "
+				+ (end - start) + " ms");
+
+		return result;
+
+	}
+
+	// names of the value columns in sort order
+	private String[] getNames(AbstractColumn keyColumn, Object[] keyValues, int[] sorted) {
+		String[] names = new String[sorted.length];
+		Set<String> used = new HashSet<String>();
+		used.add(rowKey);
+		for (int i = 0; i < sorted.length; i++) {
+			String name = keyColumn.objectToValue(keyValues[sorted[i]]);
+			if (name.equals(rowKey)) {
+				name = columnKey + "_" + name;
+			}
+			if (!used.add(name)) {
+				throw new TableException("Column '" + columnKey + "' has values that result in the same column name '"
+						+ name + "'.");
+			}
+			names[i] = name;
+		}
+		return names;
+	}
+
+}
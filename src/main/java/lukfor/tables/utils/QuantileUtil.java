@@ -0,0 +1,84 @@
+package lukfor.tables.utils;
+
+import lukfor.tables.exceptions.TableException;
+
+public class QuantileUtil {
+
+	// exact quantile of the first size values, interpolated between the two
+	// closest ranks (like R type 7). the values are reordered.
+	public static double quantile(double[] values, int size, double p) {
+		checkQuantile(p);
+		if (size == 0) {
+			return Double.NaN;
+		}
+		double h = (size - 1) * p;
+		int k = (int) Math.floor(h);
+		double lower = select(values, 0, size, k);
+		if (k + 1 >= size || h == k) {
+			return lower;
+		}
+		// all values right of k are >= lower, the next rank is the smallest
+		double upper = values[k + 1];
+		for (int i = k + 2; i < size; i++) {
+			upper = Math.min(upper, values[i]);
+		}
+		return lower + (h - k) * (upper - lower);
+	}
+
+	public static void checkQuantile(double p) {
+		if (!(p >= 0 && p <= 1)) {
+			throw new TableException("Quantile " + p + " is not between 0 and 1.");
+		}
+	}
+
+	// quickselect: moves the k-th smallest value of [from, to) to position k,
+	// smaller values to the left and larger values to the right
+	public static double select(double[] values, int from, int to, int k) {
+		int left = from;
+		int right = to - 1;
+		while (left < right) {
+			// median of three as pivot
+			int middle = (left + right) >>> 1;
+			if (values[middle] < values[left]) {
+				swap(values, middle, left);
+			}
+			if (values[right] < values[left]) {
+				swap(values, right, left);
+			}
+			if (values[right] < values[middle]) {
+				swap(values, right, middle);
+			}
+			double pivot = values[middle];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(values, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				break;
+			}
+		}
+		return values[k];
+	}
+
+	private static void swap(double[] values, int i, int j) {
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+}
@@ -0,0 +1,115 @@
+package lukfor.tables.utils;
+
+import lukfor.tables.columns.AbstractColumn;
+
+// hash table that maps the (composite) key of a row to a dense group id. only
+// the first row of each group is stored and keys are compared against the
+// column values of this row, so no key objects are created.
+public class RowHashTable extends OpenHashTable {
+
+	private AbstractColumn[] columns;
+
+	public RowHashTable(AbstractColumn[] columns, int expectedSize) {
+		super(expectedSize);
+		this.columns = columns;
+	}
+
+	public RowHashTable(AbstractColumn[] columns, int[] slots, int[] hashes, int[] rows) {
+		super(slots, toKeys(hashes), rows);
+		this.columns = columns;
+	}
+
+	public int add(int row) {
+		return findOrAdd(hash(columns, row), row);
+	}
+
+	// adds a row whose key is known to be not in the table yet
+	public int addUnique(int row) {
+		return addUnique(hash(columns, row), row);
+	}
+
+	// group of a row with the same key, -1 if the key is not in the table
+	public int find(int row) {
+		return find(hash(columns, row), row);
+	}
+
+	public int find(Object[] key) {
+		int hash = hash(key);
+		int group;
+		for (int slot = getSlot(hash); (group = getGroup(slot)) >= 0; slot = nextSlot(slot)) {
+			if (getKey(group) == hash && equals(getRow(group), key)) {
+				return group;
+			}
+		}
+		return -1;
+	}
+
+	// rows were reordered: mapping[i] is the new position of the row at position i
+	public void remap(int[] mapping) {
+		for (int group = 0; group < getSize(); group++) {
+			setRow(group, mapping[getRow(group)]);
+		}
+	}
+
+	public int[] getHashes() {
+		long[] keys = getKeys();
+		int[] hashes = new int[keys.length];
+		for (int group = 0; group < keys.length; group++) {
+			hashes[group] = (int) keys[group];
+		}
+		return hashes;
+	}
+
+	public AbstractColumn[] getColumns() {
+		return columns;
+	}
+
+	@Override
+	protected boolean equals(int group, int row) {
+		int first = getRow(group);
+		for (AbstractColumn column : columns) {
+			Object value1 = column.get(first);
+			Object value2 = column.get(row);
+			if (value1 == null ? value2 != null : !value1.equals(value2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equals(int row, Object[] key) {
+		for (int i = 0; i < columns.length; i++) {
+			Object value = columns[i].get(row);
+			if (value == null ? key[i] != null : !value.equals(key[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long[] toKeys(int[] hashes) {
+		long[] keys = new long[hashes.length];
+		for (int group = 0; group < hashes.length; group++) {
+			keys[group] = hashes[group];
+		}
+		return keys;
+	}
+
+	public static int hash(AbstractColumn[] columns, int row) {
+		int result = 1;
+		for (AbstractColumn column : columns) {
+			Object value = column.get(row);
+			result = 31 * result + (value == null ? 0 : value.hashCode());
+		}
+		return result;
+	}
+
+	public static int hash(Object[] key) {
+		int result = 1;
+		for (Object value : key) {
+			result = 31 * result + (value == null ? 0 : value.hashCode());
+		}
+		return result;
+	}
+
+}
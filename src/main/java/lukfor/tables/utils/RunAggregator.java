@@ -0,0 +1,166 @@
+package lukfor.tables.utils;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.rows.IGroupAggregator;
+import lukfor.tables.rows.IRowMapper;
+
+// groups rows that are sorted by their keys: equal keys are consecutive, so
+// every run of equal keys is one group. no hash table is needed, all runs use
+// the same accumulator that is emitted and reset when the run ends. memory does
+// not grow with the number of groups. groups are emitted in key order.
+// unsorted input is grouped by HashAggregator and only the result (one row per
+// group) is sorted by the key columns, no permutation of all rows is built.
+public class RunAggregator {
+
+	private Table table;
+
+	private String[] keyColumns;
+
+	private IRowMapper mapper;
+
+	private boolean presorted = false;
+
+	private ParallelUtil parallel = ParallelUtil.DEFAULT;
+
+	public RunAggregator(Table table, String... keyColumns) {
+		this(table, null, keyColumns);
+	}
+
+	// groups by the keys of the mapper. the mapper has to be monotonic in the key
+	// columns (e.g. bins), otherwise equal keys are not consecutive.
+	public RunAggregator(Table table, IRowMapper mapper, String... keyColumns) {
+		this.table = table;
+		this.mapper = mapper;
+		this.keyColumns = keyColumns;
+	}
+
+	// rows are known to be sorted by the key columns, sortedness is not checked
+	public RunAggregator withPresorted(boolean presorted) {
+		this.presorted = presorted;
+		return this;
+	}
+
+	public RunAggregator withParallel(ParallelUtil parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	public Table aggregate(IGroupAggregator... aggregators) {
+
+		if (!presorted && !isSorted(table, keyColumns)) {
+			Table result = new HashAggregator(table, mapper, keyColumns).withParallel(parallel)
+					.aggregate(aggregators);
+			SortKey[] keys = new SortKey[keyColumns.length];
+			for (int i = 0; i < keyColumns.length; i++) {
+				keys[i] = SortKey.asc(keyColumns[i]);
+			}
+			result.getRows().sortBy(keys);
+			return result;
+		}
+
+		long start = System.currentTimeMillis();
+
+		AbstractColumn[] columns = new AbstractColumn[keyColumns.length];
+		for (int i = 0; i < keyColumns.length; i++) {
+			columns[i] = table.getColumn(keyColumns[i]);
+		}
+		for (IGroupAggregator aggregator : aggregators) {
+			aggregator.init(table);
+			aggregator.ensureCapacity(1);
+		}
+
+		// columns are appended empty and filled run by run
+		Table result = new Table(table.getName() + ":grouped");
+		AbstractColumn[] keys = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			keys[i] = result.getColumns().append(columns[i].cloneStructure());
+		}
+		AbstractColumn[] values = new AbstractColumn[aggregators.length];
+		for (int i = 0; i < aggregators.length; i++) {
+			values[i] = result.getColumns().append(aggregators[i].createColumn());
+		}
+
+		int size = table.getRows().getSize();
+		Object key = null;
+		int groups = 0;
+		for (int row = 0; row < size; row++) {
+			Object rowKey = mapper != null ? mapper.getKey(table.getRow(row)) : null;
+			boolean same = groups > 0 && (mapper != null ? equals(key, rowKey) : equals(columns, row - 1, row));
+			if (!same) {
+				if (groups > 0) {
+					emit(aggregators, values);
+				}
+				for (int j = 0; j < columns.length; j++) {
+					keys[j].add(columns[j].get(row));
+				}
+				groups++;
+				key = rowKey;
+			}
+			for (IGroupAggregator aggregator : aggregators) {
+				aggregator.add(0, row);
+			}
+		}
+		if (groups > 0) {
+			emit(aggregators, values);
+		}
+
+		long end = System.currentTimeMillis();
+
+		Table.log(table, "Aggregated " + size + " rows into " + groups + " runs. Time: " + (end - start) + " ms");
+
+		return result;
+
+	}
+
+	// appends the aggregates of the finished run and resets the accumulators
+	private static void emit(IGroupAggregator[] aggregators, AbstractColumn[] values) {
+		for (int i = 0; i < aggregators.length; i++) {
+			values[i].add(aggregators[i].get(0));
+			aggregators[i].reset(0);
+		}
+	}
+
+	// true if the rows are in ascending order of the columns, missing values
+	// first. stops at the first row out of order.
+	public static boolean isSorted(Table table, String... columns) {
+		if (columns.length == 0) {
+			return false;
+		}
+		AbstractColumn[] sources = new AbstractColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			sources[i] = table.getColumn(columns[i]);
+		}
+		int size = table.getRows().getSize();
+		for (int row = 1; row < size; row++) {
+			for (int i = 0; i < columns.length; i++) {
+				Object previous = sources[i].get(row - 1);
+				Object value = sources[i].get(row);
+				int compare = previous == null || value == null ? (previous == value ? 0 : previous == null ? -1 : 1)
+						: sources[i].compare(previous, value);
+				if (compare > 0) {
+					return false;
+				}
+				if (compare < 0) {
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean equals(AbstractColumn[] columns, int row1, int row2) {
+		for (AbstractColumn column : columns) {
+			if (!equals(column.get(row1), column.get(row2))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equals(Object value1, Object value2) {
+		return value1 == null ? value2 == null : value1.equals(value2);
+	}
+
+}
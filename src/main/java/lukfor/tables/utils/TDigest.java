@@ -0,0 +1,171 @@
+package lukfor.tables.utils;
+
+import java.util.Arrays;
+
+// t-digest (merging variant): a summary of a distribution with bounded memory
+// that answers quantiles with small errors, especially in the tails. values are
+// buffered and merged into centroids sorted by their mean. centroids near the
+// median hold many values, centroids at the tails only a few. digests of
+// several threads or groups can be merged.
+public class TDigest {
+
+	public static final double DEFAULT_COMPRESSION = 100;
+
+	private double compression;
+
+	private double[] means = new double[0];
+
+	private double[] weights = new double[0];
+
+	private int centroids = 0;
+
+	// weight of all centroids
+	private double total = 0;
+
+	private double[] buffer = new double[16];
+
+	private int buffered = 0;
+
+	private int bufferLimit;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public TDigest() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	// larger compressions keep more centroids and are more accurate
+	public TDigest(double compression) {
+		this.compression = compression;
+		bufferLimit = (int) (5 * compression);
+	}
+
+	public void add(double value) {
+		if (buffered == buffer.length) {
+			if (buffered >= bufferLimit) {
+				compress();
+			} else {
+				buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, bufferLimit));
+			}
+		}
+		buffer[buffered++] = value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public void merge(TDigest other) {
+		other.compress();
+		if (other.centroids == 0) {
+			return;
+		}
+		compress();
+		merge(other.means, other.weights, other.centroids);
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return (long) total + buffered;
+	}
+
+	public int getCentroids() {
+		compress();
+		return centroids;
+	}
+
+	// approximate quantile, NaN if the digest is empty
+	public double quantile(double p) {
+
+		QuantileUtil.checkQuantile(p);
+		compress();
+		if (centroids == 0) {
+			return Double.NaN;
+		}
+		if (centroids == 1) {
+			return means[0];
+		}
+
+		// values are interpolated between the centers of the centroids, the first
+		// and last half centroid between min and max
+		double index = p * total;
+		double cumulative = weights[0] / 2;
+		if (index <= cumulative) {
+			return min + (means[0] - min) * index / cumulative;
+		}
+		for (int i = 0; i < centroids - 1; i++) {
+			double next = cumulative + (weights[i] + weights[i + 1]) / 2;
+			if (index <= next) {
+				return means[i] + (means[i + 1] - means[i]) * (index - cumulative) / (next - cumulative);
+			}
+			cumulative = next;
+		}
+		int last = centroids - 1;
+		return means[last] + (max - means[last]) * Math.min(1, (index - cumulative) / (total - cumulative));
+
+	}
+
+	private void compress() {
+		if (buffered == 0) {
+			return;
+		}
+		Arrays.sort(buffer, 0, buffered);
+		merge(buffer, null, buffered);
+		buffered = 0;
+	}
+
+	// merges sorted centroids (weight 1 if weights is null) into the centroids.
+	// neighbours are combined as long as a centroid spans at most 1 on the scale
+	// k(q) = compression / pi * asin(2q - 1), which is steep at the tails.
+	private void merge(double[] otherMeans, double[] otherWeights, int others) {
+
+		double totalWeight = total;
+		for (int j = 0; j < others; j++) {
+			totalWeight += otherWeights != null ? otherWeights[j] : 1;
+		}
+
+		double[] newMeans = new double[centroids + others];
+		double[] newWeights = new double[centroids + others];
+		int count = 0;
+		double soFar = 0;
+		int i = 0;
+		int j = 0;
+		while (i < centroids || j < others) {
+			double mean;
+			double weight;
+			if (j >= others || (i < centroids && means[i] <= otherMeans[j])) {
+				mean = means[i];
+				weight = weights[i];
+				i++;
+			} else {
+				mean = otherMeans[j];
+				weight = otherWeights != null ? otherWeights[j] : 1;
+				j++;
+			}
+			if (count > 0) {
+				double combined = newWeights[count - 1] + weight;
+				if (scale((soFar + combined) / totalWeight) - scale(soFar / totalWeight) <= 1) {
+					newMeans[count - 1] += (mean - newMeans[count - 1]) * weight / combined;
+					newWeights[count - 1] = combined;
+					continue;
+				}
+				soFar += newWeights[count - 1];
+			}
+			newMeans[count] = mean;
+			newWeights[count] = weight;
+			count++;
+		}
+
+		means = Arrays.copyOf(newMeans, count);
+		weights = Arrays.copyOf(newWeights, count);
+		centroids = count;
+		total = totalWeight;
+
+	}
+
+	private double scale(double q) {
+		return compression / Math.PI * Math.asin(2 * Math.min(q, 1) - 1);
+	}
+
+}
@@ -0,0 +1,362 @@
+package lukfor.tables.utils;
+
+import lukfor.tables.Table;
+import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.columns.types.DoubleColumn;
+import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.exceptions.TableException;
+
+// window functions over partitions of rows. rows are sorted once by the
+// partition columns and the order keys, all functions reuse this permutation
+// and add a new column with one value per row (in the original row order).
+// running aggregates are updated incrementally per row. missing values are
+// ignored.
+public class WindowBuilder {
+
+	private Table table;
+
+	private String[] partitionColumns = new String[0];
+
+	private SortKey[] orderKeys = new SortKey[0];
+
+	// rows in window order
+	private int[] order;
+
+	// start of each partition in order, the last element is the number of rows
+	private int[] bounds;
+
+	public WindowBuilder(Table table) {
+		this.table = table;
+	}
+
+	public WindowBuilder partitionBy(String... columns) {
+		partitionColumns = columns;
+		order = null;
+		return this;
+	}
+
+	public WindowBuilder orderBy(String... columns) {
+		SortKey[] keys = new SortKey[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			keys[i] = SortKey.asc(columns[i]);
+		}
+		return orderBy(keys);
+	}
+
+	public WindowBuilder orderBy(SortKey... keys) {
+		orderKeys = keys;
+		order = null;
+		return this;
+	}
+
+	// mean of the current and the window - 1 previous rows
+	public WindowBuilder rollingMean(String column, int window) {
+		return rolling(column, window, true, "rolling_mean_" + window + "_" + column);
+	}
+
+	public WindowBuilder rollingSum(String column, int window) {
+		return rolling(column, window, false, "rolling_sum_" + window + "_" + column);
+	}
+
+	public WindowBuilder rollingMin(String column, int window) {
+		return rollingExtreme(column, window, -1, "rolling_min_" + window + "_" + column);
+	}
+
+	public WindowBuilder rollingMax(String column, int window) {
+		return rollingExtreme(column, window, 1, "rolling_max_" + window + "_" + column);
+	}
+
+	public WindowBuilder cumSum(String column) {
+		return rolling(column, Integer.MAX_VALUE, false, "cum_sum_" + column);
+	}
+
+	public WindowBuilder cumMin(String column) {
+		return rollingExtreme(column, Integer.MAX_VALUE, -1, "cum_min_" + column);
+	}
+
+	public WindowBuilder cumMax(String column) {
+		return rollingExtreme(column, Integer.MAX_VALUE, 1, "cum_max_" + column);
+	}
+
+	// value of the row offset rows before, missing for the first rows
+	public WindowBuilder lag(String column, int offset) {
+		return shift(column, -offset, "lag_" + offset + "_" + column);
+	}
+
+	// value of the row offset rows after, missing for the last rows
+	public WindowBuilder lead(String column, int offset) {
+		return shift(column, offset, "lead_" + offset + "_" + column);
+	}
+
+	// 1, 2, 3, ... in each partition
+	public WindowBuilder rowNumber() {
+		prepare();
+		int[] result = new int[order.length];
+		for (int p = 0; p < bounds.length - 1; p++) {
+			for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+				result[order[i]] = i - bounds[p] + 1;
+			}
+		}
+		return append(new IntegerColumn("row_number"), result);
+	}
+
+	// rows with equal order keys have the same rank, ranks have gaps after ties
+	public WindowBuilder rank() {
+		return rank(false, "rank");
+	}
+
+	// like rank but without gaps
+	public WindowBuilder denseRank() {
+		return rank(true, "dense_rank");
+	}
+
+	private WindowBuilder rolling(String column, int window, boolean mean, String name) {
+
+		checkWindow(window);
+		AbstractColumn source = getNumericColumn(column);
+		Object[] values = source.toArray();
+		prepare();
+
+		// integers are summed exactly in longs, doubles with compensated summation
+		// so that rounding errors do not add up while rows enter and leave
+		Object[] result = new Object[order.length];
+		boolean integers = source instanceof IntegerColumn;
+		for (int p = 0; p < bounds.length - 1; p++) {
+			long longSum = 0;
+			double[] sum = new double[2];
+			int count = 0;
+			for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+				Object value = values[order[i]];
+				if (value != null) {
+					if (integers) {
+						longSum += (Integer) value;
+					} else {
+						add(sum, ((Number) value).doubleValue());
+					}
+					count++;
+				}
+				// the row leaving the window
+				if ((long) i - window >= bounds[p]) {
+					Object old = values[order[i - window]];
+					if (old != null) {
+						if (integers) {
+							longSum -= (Integer) old;
+						} else {
+							add(sum, -((Number) old).doubleValue());
+						}
+						count--;
+					}
+				}
+				if (count > 0) {
+					result[order[i]] = getRollingValue(column, integers, mean, longSum, sum[0] + sum[1], count);
+				}
+			}
+		}
+
+		return append(mean || !integers ? new DoubleColumn(name) : new IntegerColumn(name), result);
+
+	}
+
+	private static Object getRollingValue(String column, boolean integers, boolean mean, long longSum, double sum,
+			int count) {
+		if (!integers) {
+			return mean ? sum / count : sum;
+		}
+		if (mean) {
+			return (double) longSum / count;
+		}
+		if (longSum != (int) longSum) {
+			throw new TableException("Rolling sum of column '" + column + "' is out of integer range: " + longSum + ".");
+		}
+		return (int) longSum;
+	}
+
+	// adds the value to sum[0] and keeps the lost low-order bits in sum[1]
+	// (kahan-babuska summation)
+	private static void add(double[] sum, double value) {
+		double total = sum[0] + value;
+		if (Math.abs(sum[0]) >= Math.abs(value)) {
+			sum[1] += (sum[0] - total) + value;
+		} else {
+			sum[1] += (value - total) + sum[0];
+		}
+		sum[0] = total;
+	}
+
+	// sliding min (sign -1) or max (sign 1) with a monotonic deque of positions in
+	// order: values in the deque get worse from front to back
+	private WindowBuilder rollingExtreme(String column, int window, int sign, String name) {
+
+		checkWindow(window);
+		AbstractColumn source = getNumericColumn(column);
+		Object[] values = source.toArray();
+		prepare();
+
+		Object[] result = new Object[order.length];
+		int[] deque = new int[order.length];
+		for (int p = 0; p < bounds.length - 1; p++) {
+			int head = 0;
+			int tail = 0;
+			for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+				if (head < tail && (long) deque[head] <= (long) i - window) {
+					head++;
+				}
+				Object value = values[order[i]];
+				if (value != null) {
+					double number = ((Number) value).doubleValue();
+					while (head < tail
+							&& (((Number) values[order[deque[tail - 1]]]).doubleValue() - number) * sign <= 0) {
+						tail--;
+					}
+					deque[tail++] = i;
+				}
+				if (head < tail) {
+					result[order[i]] = values[order[deque[head]]];
+				}
+			}
+		}
+
+		AbstractColumn target = source.cloneStructure();
+		target.setName(name);
+		return append(target, result);
+
+	}
+
+	private WindowBuilder shift(String column, int offset, String name) {
+
+		AbstractColumn source = table.getColumn(column);
+		Object[] values = source.toArray();
+		prepare();
+
+		Object[] result = new Object[order.length];
+		for (int p = 0; p < bounds.length - 1; p++) {
+			for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+				long j = (long) i + offset;
+				if (j >= bounds[p] && j < bounds[p + 1]) {
+					result[order[i]] = values[order[(int) j]];
+				}
+			}
+		}
+
+		AbstractColumn target = source.cloneStructure();
+		target.setName(name);
+		return append(target, result);
+
+	}
+
+	private WindowBuilder rank(boolean dense, String name) {
+
+		prepare();
+		Object[][] keys = new Object[orderKeys.length][];
+		for (int k = 0; k < orderKeys.length; k++) {
+			keys[k] = table.getColumn(orderKeys[k].getColumn()).toArray();
+		}
+
+		int[] result = new int[order.length];
+		for (int p = 0; p < bounds.length - 1; p++) {
+			int rank = 0;
+			for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+				if (i == bounds[p] || !equals(keys, order[i - 1], order[i])) {
+					rank = dense ? rank + 1 : i - bounds[p] + 1;
+				}
+				result[order[i]] = rank;
+			}
+		}
+		return append(new IntegerColumn(name), result);
+
+	}
+
+	// sorts the rows once by partition and order keys and finds the partitions
+	private void prepare() {
+
+		if (order != null) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+
+		int size = table.getRows().getSize();
+		SortKey[] keys = new SortKey[partitionColumns.length + orderKeys.length];
+		for (int i = 0; i < partitionColumns.length; i++) {
+			keys[i] = SortKey.asc(partitionColumns[i]);
+		}
+		System.arraycopy(orderKeys, 0, keys, partitionColumns.length, orderKeys.length);
+
+		if (keys.length == 0) {
+			order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+		} else {
+			AbstractColumn[] columns = new AbstractColumn[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				columns[i] = table.getColumn(keys[i].getColumn());
+			}
+			order = new ColumnSorter(columns, keys).getPositions();
+		}
+
+		Object[][] partitions = new Object[partitionColumns.length][];
+		for (int i = 0; i < partitionColumns.length; i++) {
+			partitions[i] = table.getColumn(partitionColumns[i]).toArray();
+		}
+		int[] starts = new int[size + 1];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (i == 0 || !equals(partitions, order[i - 1], order[i])) {
+				starts[count++] = i;
+			}
+		}
+		starts[count++] = size;
+		bounds = new int[count];
+		System.arraycopy(starts, 0, bounds, 0, count);
+
+		long end = System.currentTimeMillis();
+
+		Table.log(table, "Sorted " + size + " rows into " + (count - 1) + " partitions. Time: " + (end - start) + " ms");
+
+	}
+
+	private AbstractColumn getNumericColumn(String column) {
+		AbstractColumn source = table.getColumn(column);
+		if (!(source instanceof IntegerColumn || source instanceof DoubleColumn)) {
+			throw new TableException("Column '" + column + "' is not numeric.");
+		}
+		return source;
+	}
+
+	private static void checkWindow(int window) {
+		if (window < 1) {
+			throw new TableException("Window size " + window + " is smaller than 1.");
+		}
+	}
+
+	private WindowBuilder append(AbstractColumn column, Object[] values) {
+		for (Object value : values) {
+			column.add(value);
+		}
+		table.getColumns().append(column, null);
+		return this;
+	}
+
+	private WindowBuilder append(AbstractColumn column, int[] values) {
+		for (int value : values) {
+			column.add(value);
+		}
+		table.getColumns().append(column, null);
+		return this;
+	}
+
+	private static boolean equals(Object[][] data, int row1, int row2) {
+		for (Object[] values : data) {
+			Object value1 = values[row1];
+			Object value2 = values[row2];
+			if (value1 == null ? value2 != null : !value1.equals(value2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -2,19 +2,61 @@ package lukfor.tables;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
 
 import genepi.io.FileUtil;
 import junit.framework.TestCase;
 import lukfor.tables.columns.AbstractColumn;
+import lukfor.tables.columns.ColumnSorter;
+import lukfor.tables.columns.Histogram;
+import lukfor.tables.columns.HistogramBuilder;
 import lukfor.tables.columns.IApplyFunction;
 import lukfor.tables.columns.IBuildValueFunction;
+import lukfor.tables.columns.SortKey;
+import lukfor.tables.columns.types.DateColumn;
 import lukfor.tables.columns.types.DoubleColumn;
 import lukfor.tables.columns.types.IntegerColumn;
+import lukfor.tables.columns.types.StringColumn;
+import lukfor.tables.exceptions.TableException;
+import lukfor.tables.io.ExternalAggregator;
+import lukfor.tables.io.ExternalSorter;
 import lukfor.tables.io.TableBuilder;
+import lukfor.tables.io.TableIndexFile;
 import lukfor.tables.io.TableWriter;
+import lukfor.tables.rows.BitmapIndex;
+import lukfor.tables.rows.MultiTableIndex;
+import lukfor.tables.rows.IRowAggregator;
+import lukfor.tables.rows.IRowMapper;
+import lukfor.tables.rows.IRowProcessor;
 import lukfor.tables.rows.Row;
+import lukfor.tables.rows.SortedTableIndex;
+import lukfor.tables.rows.aggregators.Aggregators;
+import lukfor.tables.rows.aggregators.CountAggregator;
+import lukfor.tables.rows.aggregators.MaxAggregator;
+import lukfor.tables.rows.aggregators.MaxRowAggregator;
+import lukfor.tables.rows.aggregators.MeanAggregator;
+import lukfor.tables.rows.aggregators.MeanRowAggregator;
+import lukfor.tables.rows.aggregators.MinRowAggregator;
+import lukfor.tables.rows.aggregators.SumAggregator;
+import lukfor.tables.rows.aggregators.SumRowAggregator;
+import lukfor.tables.rows.TableIndex;
 import lukfor.tables.rows.filters.IRowFilter;
+import lukfor.tables.utils.Bitmap;
+import lukfor.tables.utils.Deduplicator;
+import lukfor.tables.utils.GroupKeyTable;
+import lukfor.tables.utils.HashAggregator;
+import lukfor.tables.utils.JoinType;
+import lukfor.tables.utils.ParallelUtil;
+import lukfor.tables.utils.Pivot;
+import lukfor.tables.utils.QuantileUtil;
+import lukfor.tables.utils.RunAggregator;
+import lukfor.tables.utils.TDigest;
 
 public class TableTest extends TestCase {
 
@@ -450,4 +492,1704 @@ public class TableTest extends TestCase {
 
 	}
 
+	public void testSortedIndex() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/numbers.csv").withSeparator('\t').load();
+		table.getRows().sortDescBy("x");
+
+		SortedTableIndex index = table.createSortedIndex("y");
+		assertEquals(30, index.getSize());
+		assertEquals(1, index.getFirstRow().getInteger("y"));
+		assertEquals(900, index.getLastRow().getInteger("y"));
+
+		List<Row> rows = index.range(100, 200);
+		assertEquals(5, rows.size());
+		assertEquals(100, rows.get(0).getInteger("y"));
+		assertEquals(196, rows.get(4).getInteger("y"));
+		assertEquals(3, index.lessThan(16).size());
+		assertEquals(4, index.lessThanOrEqual(16).size());
+		assertEquals(1, index.greaterThan(841).size());
+		assertEquals(0, index.range(2, 3).size());
+		assertEquals(8, index.getNearestRow(60).getInteger("x"));
+		assertEquals(7, index.getNearestRow(50).getInteger("x"));
+		assertEquals(30, index.getNearestRow(10000).getInteger("x"));
+
+	}
+
+	public void testMultiIndex() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/groups.csv").load();
+
+		MultiTableIndex index = table.createMultiIndex("group");
+		assertEquals(3, index.getKeys());
+		assertEquals(3, index.getCount(1));
+		assertEquals(2, index.getCount(2));
+		assertEquals(4, index.getCount(3));
+		assertEquals(0, index.getCount(4));
+
+		List<Row> rows = table.getRows().getAll("group", 3);
+		assertEquals(4, rows.size());
+		assertEquals(1, rows.get(0).getInteger("value"));
+		assertEquals(4, rows.get(3).getInteger("value"));
+
+		MultiTableIndex composite = table.createMultiIndex("group", "value");
+		assertEquals(9, composite.getKeys());
+		assertEquals(1, table.getRows().getAll(new String[] { "group", "value" }, 2, 2).size());
+		assertEquals(0, table.getRows().getAll(new String[] { "group", "value" }, 2, 3).size());
+
+		table.getRows().selectByRegEx("value", "1");
+		assertEquals(1, table.getRows().getAll("group", 3).size());
+
+	}
+
+	public void testMultiIndexSelectDuplicatePositions() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/groups.csv").load();
+		MultiTableIndex index = table.createMultiIndex("group");
+
+		// same number of rows, but the first row is selected three times
+		int size = table.getRows().getSize();
+		int[] positions = new int[size];
+		for (int i = 2; i < size; i++) {
+			positions[i] = i - 2;
+		}
+		table.getRows().select(positions);
+
+		for (int group = 1; group <= 3; group++) {
+			int count = 0;
+			for (int i = 0; i < table.getRows().getSize(); i++) {
+				if (table.getRows().get(i).getInteger("group") == group) {
+					count++;
+				}
+			}
+			assertEquals(count, index.getCount(group));
+		}
+		int first = table.getRows().get(0).getInteger("group");
+		int[] rows = index.getPositions(first);
+		assertEquals(0, rows[0]);
+		assertEquals(1, rows[1]);
+		assertEquals(2, rows[2]);
+
+	}
+
+	public void testIndexesSurviveAppendSortAndSelect() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/numbers.csv").withSeparator('\t').load();
+		TableIndex unique = table.createIndex("x");
+		SortedTableIndex sorted = table.createSortedIndex("y");
+		MultiTableIndex groups = table.createMultiIndex("group");
+		assertSame(unique, table.createIndex("x"));
+
+		Row row = table.getRows().append();
+		row.set("x", 31);
+		row.set("y", 961);
+		row.set("group", "a");
+		assertEquals(31, unique.getRow(31).getInteger("x"));
+		assertEquals(961, sorted.getLastRow().getInteger("y"));
+		assertEquals(8, groups.getCount("a"));
+
+		table.getRows().sortDescBy("x");
+		assertEquals(0, unique.getRow(31).getIndex());
+		assertEquals(30, unique.getRow(1).getIndex());
+		assertEquals(30, sorted.getFirstRow().getIndex());
+		assertEquals(5, sorted.range(100, 200).size());
+		List<Row> rows = table.getRows().getAll("group", "a");
+		assertEquals(8, rows.size());
+		assertEquals(31, rows.get(0).getInteger("x"));
+		assertEquals(1, rows.get(7).getInteger("x"));
+
+		table.getRows().select(new IRowFilter() {
+			public boolean accepts(Row row) {
+				return row.getInteger("x") % 2 == 0;
+			}
+		});
+		assertEquals(15, table.getRows().getSize());
+		assertNull(unique.getRow(31));
+		assertEquals(14, unique.getRow(2).getIndex());
+		assertEquals(4, sorted.getFirstRow().getInteger("y"));
+		assertEquals(3, groups.getCount("a"));
+		assertEquals(4, table.getRows().getAll("group", "d").size());
+
+		table.getColumns().rename("group", "category");
+		assertNull(table.getMultiIndex("group"));
+
+	}
+
+	public void testIndexesAfterValueChanges() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/numbers.csv").withSeparator('\t').load();
+		TableIndex unique = table.createIndex("x");
+		MultiTableIndex groups = table.createMultiIndex("group");
+
+		// changed values drop the index, a new one is built
+		table.getRows().get(0).set("x", 100);
+		TableIndex rebuilt = table.createIndex("x");
+		assertTrue(unique != rebuilt);
+		assertEquals(0, rebuilt.getRow(100).getIndex());
+		assertSame(groups, table.getMultiIndex("group"));
+		table.getColumn("group").fillMissings("a");
+		assertNull(table.getMultiIndex("group"));
+
+		// values set on appended rows do not drop the index
+		Row row = table.getRows().append();
+		row.set("x", 31);
+		assertSame(rebuilt, table.createIndex("x"));
+		assertEquals(30, rebuilt.getRow(31).getIndex());
+
+		// merge uses the current values
+		Table other = new Table("other");
+		other.getColumns().append(new IntegerColumn("x"));
+		other.getColumns().append(new StringColumn("label"));
+		other.getRows().append().set(new Object[] { 100, "changed" });
+		other.createIndex("x");
+		other.getRows().get(0).set("x", 31);
+		table.merge(other, "x");
+		assertEquals("changed", table.get(30, "label"));
+		assertNull(table.get(0, "label"));
+
+		// appended duplicates in a unique index are reported once, the index is
+		// dropped
+		table.getRows().append().set("x", 31);
+		try {
+			table.getRows().sortDescBy("x");
+			fail();
+		} catch (TableException e) {
+		}
+		assertFalse(table.getIndexes().contains(rebuilt));
+		table.getRows().sortDescBy("x");
+		assertEquals(100, table.get(0, "x"));
+		table.getRows().selectByRegEx("x", "31");
+		assertEquals(2, table.getRows().getSize());
+
+		// merge reuses a registered unique index of the other table
+		TableIndex otherIndex = other.createIndex("x");
+		Table target = new Table("target");
+		target.getColumns().append(new IntegerColumn("x"));
+		target.getRows().append().set("x", 31);
+		target.getRows().append().set("x", 100);
+		target.merge(other, "x");
+		assertEquals("changed", target.get(0, "label"));
+		assertNull(target.get(1, "label"));
+		assertSame(otherIndex, other.createIndex("x"));
+
+		table.dropIndexes();
+		assertTrue(table.getIndexes().isEmpty());
+
+	}
+
+	public void testIndexFiles() throws IOException {
+
+		String source = "data/numbers.csv";
+		File hashFile = File.createTempFile("test", ".idx");
+		File sortedFile = File.createTempFile("test", ".idx");
+		hashFile.delete();
+		sortedFile.delete();
+
+		Table table = TableBuilder.fromCsvFile(source).withSeparator('\t').load();
+		TableIndexFile.loadIndex(table, "y", hashFile.getAbsolutePath(), source);
+		TableIndexFile.loadSortedIndex(table, "y", sortedFile.getAbsolutePath(), source);
+		assertTrue(hashFile.exists());
+		assertTrue(sortedFile.exists());
+
+		// reload from files
+		table = TableBuilder.fromCsvFile(source).withSeparator('\t').load();
+		TableIndex index = TableIndexFile.readIndex(table, "y", hashFile.getAbsolutePath(), source);
+		assertNotNull(index);
+		assertSame(index, table.createIndex("y"));
+		assertEquals(7, index.getRow(49).getInteger("x"));
+		assertNull(index.getRow(50));
+		SortedTableIndex sorted = TableIndexFile.readSortedIndex(table, "y", sortedFile.getAbsolutePath(), source);
+		assertNotNull(sorted);
+		assertEquals(5, sorted.range(100, 200).size());
+
+		// stale: different number of rows or other source file
+		table.getRows().dropByRegEx("x", "1");
+		assertNull(TableIndexFile.readIndex(table, "y", hashFile.getAbsolutePath(), source));
+		assertNull(TableIndexFile.readSortedIndex(table, "y", sortedFile.getAbsolutePath(), "data/groups.csv"));
+
+		// without source file: other values with the same number of rows
+		Table other = TableBuilder.fromCsvFile(source).withSeparator('\t').load();
+		TableIndexFile.writeIndex(other, other.createIndex("y"), hashFile.getAbsolutePath(), null);
+		Table copy = TableBuilder.fromCsvFile(source).withSeparator('\t').load();
+		assertNotNull(TableIndexFile.readIndex(copy, "y", hashFile.getAbsolutePath(), null));
+		copy = TableBuilder.fromCsvFile(source).withSeparator('\t').load();
+		copy.getRows().get(0).set("y", 1000);
+		assertNull(TableIndexFile.readIndex(copy, "y", hashFile.getAbsolutePath(), null));
+
+	}
+
+	public void testIndexFileChecksumMismatch() throws IOException {
+
+		File file = File.createTempFile("test", ".idx");
+		file.delete();
+
+		Table table = new Table("large");
+		table.getColumns().append(new IntegerColumn("id"));
+		for (int i = 0; i < 10000; i++) {
+			table.getRows().append().set("id", i);
+		}
+		TableIndexFile.writeIndex(table, table.createIndex("id"), file.getAbsolutePath(), null);
+
+		// row 1 is not part of the sampled fingerprint, only the full checksum
+		// detects the changed value
+		Table changed = new Table("changed");
+		changed.getColumns().append(new IntegerColumn("id"));
+		for (int i = 0; i < 10000; i++) {
+			changed.getRows().append().set("id", i == 1 ? -1 : i);
+		}
+		assertNull(TableIndexFile.readIndex(changed, "id", file.getAbsolutePath(), null, true));
+		assertNull(TableIndexFile.loadIndex(changed, "id", file.getAbsolutePath(), null, true).getRow(1));
+		assertEquals(1, changed.createIndex("id").getRow(-1).getIndex());
+
+		// the rebuilt file matches the changed table
+		Table reloaded = new Table("reloaded");
+		reloaded.getColumns().append(new IntegerColumn("id"));
+		for (int i = 0; i < 10000; i++) {
+			reloaded.getRows().append().set("id", i == 1 ? -1 : i);
+		}
+		TableIndex index = TableIndexFile.readIndex(reloaded, "id", file.getAbsolutePath(), null, true);
+		assertNotNull(index);
+		assertEquals(9999, index.getRow(9999).getIndex());
+		file.delete();
+
+	}
+
+	public void testBitmapIndex() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/numbers.csv").withSeparator('\t').load();
+		table.getColumns().append(new IntegerColumn("even"), new IBuildValueFunction() {
+			public Object buildValue(Row row) {
+				return row.getInteger("x") % 2 == 0 ? 1 : 0;
+			}
+		});
+
+		BitmapIndex groups = table.createBitmapIndex("group");
+		BitmapIndex even = table.createBitmapIndex("even");
+		assertEquals(4, groups.getValues().size());
+		assertEquals(7, groups.get("a").getCardinality());
+		assertEquals(0, groups.get("x").getCardinality());
+
+		// group in (a, d) and not even
+		Bitmap selection = groups.getAny("a", "d").andNot(even.get(1));
+		assertEquals(7, selection.getCardinality());
+		assertEquals(4, selection.and(groups.get("a")).getCardinality());
+		assertEquals(23, selection.not(30).getCardinality());
+		assertEquals(7, table.getRows().getAll(selection).size());
+
+		table.getRows().select(selection);
+		assertEquals(7, table.getRows().getSize());
+		assertEquals(1, table.get(0, "x"));
+		assertEquals(29, table.get(6, "x"));
+		assertEquals(3, groups.get("d").getCardinality());
+		assertEquals(7, even.get(0).getCardinality());
+
+	}
+
+	public void testBitmapContainers() {
+
+		// sparse and dense chunks
+		Bitmap a = new Bitmap();
+		Bitmap b = new Bitmap();
+		for (int i = 0; i < 200000; i += 2) {
+			a.add(i);
+		}
+		for (int i = 0; i < 200000; i += 3) {
+			b.add(i);
+		}
+		b.add(500000);
+		assertEquals(100000, a.getCardinality());
+		assertEquals(66667 + 1, b.getCardinality());
+		assertEquals(33334, a.and(b).getCardinality());
+		assertEquals(100000 + 66667 + 1 - 33334, a.or(b).getCardinality());
+		assertEquals(100000 - 33334, a.andNot(b).getCardinality());
+		assertTrue(a.or(b).contains(500000));
+		assertFalse(a.and(b).contains(2));
+		assertTrue(a.and(b).contains(6));
+		assertEquals(100000, a.not(200000).getCardinality());
+		int[] positions = a.and(b).toArray();
+		assertEquals(0, positions[0]);
+		assertEquals(6, positions[1]);
+		assertEquals(199998, positions[positions.length - 1]);
+
+	}
+
+	public void testSortTypedColumns() throws IOException {
+
+		Random random = new Random(42);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("id"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		table.getColumns().append(new StringColumn("string"));
+		table.getColumns().append(new DateColumn("date"));
+		for (int i = 0; i < 5000; i++) {
+			Row row = table.getRows().append();
+			row.set("id", i);
+			row.set("integer", random.nextInt(10) == 0 ? null : random.nextInt(2000) - 1000);
+			row.set("double", random.nextInt(10) == 0 ? null : random.nextGaussian() * 1e6);
+			row.set("string", random.nextInt(10) == 0 ? null : "s" + random.nextInt(500));
+			row.set("date", random.nextInt(10) == 0 ? null : new Date(random.nextLong() / 1000));
+		}
+
+		for (String column : new String[] { "integer", "double", "string", "date" }) {
+			AbstractColumn values = table.getColumn(column);
+			table.getRows().sortAscBy("id");
+			table.getRows().sortAscBy(column);
+			for (int i = 1; i < 5000; i++) {
+				Object value1 = values.get(i - 1);
+				Object value2 = values.get(i);
+				if (value1 != null && value2 != null) {
+					int compare = values.compare(value1, value2);
+					assertTrue(compare <= 0);
+					// stable: equal values keep order of id
+					if (compare == 0) {
+						assertTrue(table.getRows().get(i - 1).getInteger("id") < table.getRows().get(i).getInteger("id"));
+					}
+				} else {
+					// missing values first
+					assertTrue(value1 == null);
+				}
+			}
+			table.getRows().sortDescBy(column);
+			for (int i = 1; i < 5000; i++) {
+				Object value1 = values.get(i - 1);
+				Object value2 = values.get(i);
+				if (value1 != null && value2 != null) {
+					assertTrue(values.compare(value1, value2) >= 0);
+				} else {
+					// missing values last
+					assertTrue(value2 == null);
+				}
+			}
+		}
+
+	}
+
+	public void testSortByMultipleKeys() throws IOException {
+
+		Random random = new Random(7);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("id"));
+		table.getColumns().append(new StringColumn("string"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		table.getColumns().append(new DateColumn("date"));
+		for (int i = 0; i < 5000; i++) {
+			Row row = table.getRows().append();
+			row.set("id", i);
+			row.set("string", random.nextInt(10) == 0 ? null : "s" + random.nextInt(5));
+			row.set("integer", random.nextInt(10) == 0 ? null : random.nextInt(5) - 2);
+			row.set("double", random.nextInt(10) == 0 ? null : (double) random.nextInt(5));
+			row.set("date", random.nextInt(10) == 0 ? null : new Date(random.nextInt(5) * 1000L));
+		}
+
+		SortKey[][] sortKeys = new SortKey[][] {
+				{ SortKey.asc("string"), SortKey.desc("integer") },
+				{ SortKey.desc("integer").nullsFirst(), SortKey.asc("double").nullsLast() },
+				{ SortKey.asc("date"), SortKey.desc("string"), SortKey.asc("double"), SortKey.desc("integer") } };
+
+		for (SortKey[] keys : sortKeys) {
+			table.getRows().sortAscBy("id");
+			table.getRows().sortBy(keys);
+			for (int i = 1; i < 5000; i++) {
+				int compare = 0;
+				for (SortKey key : keys) {
+					AbstractColumn column = table.getColumn(key.getColumn());
+					Object value1 = column.get(i - 1);
+					Object value2 = column.get(i);
+					if (value1 == null || value2 == null) {
+						compare = value1 == value2 ? 0 : (value1 == null) == key.isNullsFirst() ? -1 : 1;
+					} else {
+						compare = column.compare(value1, value2) * key.getOrder();
+					}
+					if (compare != 0) {
+						break;
+					}
+				}
+				assertTrue(compare <= 0);
+				// stable: equal keys keep order of id
+				if (compare == 0) {
+					assertTrue(table.getRows().get(i - 1).getInteger("id") < table.getRows().get(i).getInteger("id"));
+				}
+			}
+		}
+
+	}
+
+	public void testCompareMissingValues() throws IOException {
+
+		assertTrue(new IntegerColumn("a").compare(null, Integer.MIN_VALUE) < 0);
+		assertTrue(new DoubleColumn("a").compare(null, -1.0) < 0);
+		assertTrue(new StringColumn("a").compare("", null) > 0);
+		assertTrue(new DateColumn("a").compare(null, new Date(0)) < 0);
+		assertEquals(0, new DateColumn("a").compare(null, null));
+
+	}
+
+	public void testParallelSort() throws IOException {
+
+		Random random = new Random(3);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("id"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		table.getColumns().append(new StringColumn("string"));
+		for (int i = 0; i < 20000; i++) {
+			Row row = table.getRows().append();
+			row.set("id", i);
+			row.set("integer", random.nextInt(10) == 0 ? null : random.nextInt());
+			row.set("double", random.nextInt(10) == 0 ? null : random.nextGaussian());
+			row.set("string", random.nextInt(10) == 0 ? null : "s" + random.nextInt(100));
+		}
+
+		String[] columns = new String[] { "integer", "double", "string" };
+		List<Object> expected = new Vector<Object>();
+		for (String column : columns) {
+			table.getRows().sortDescBy(column);
+			expected.addAll(table.getColumn("id").getValues());
+		}
+		table.getRows().sortBy(SortKey.asc("string"), SortKey.desc("double"));
+		expected.addAll(table.getColumn("id").getValues());
+
+		ParallelUtil parallel = new ParallelUtil(4, 1000);
+		List<Object> actual = new Vector<Object>();
+		table.getRows().sortAscBy("id");
+		for (String column : columns) {
+			table.getRows().select(new ColumnSorter(table.getColumn(column), ColumnSorter.SORT_DESCEND)
+					.withParallel(parallel).getPositions());
+			actual.addAll(table.getColumn("id").getValues());
+		}
+		table.getRows().select(new ColumnSorter(
+				new AbstractColumn[] { table.getColumn("string"), table.getColumn("double") },
+				new SortKey[] { SortKey.asc("string"), SortKey.desc("double") }).withParallel(parallel).getPositions());
+		actual.addAll(table.getColumn("id").getValues());
+		assertEquals(expected, actual);
+
+	}
+
+	public void testTopN() throws IOException {
+
+		Random random = new Random(11);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("id"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		table.getColumns().append(new StringColumn("string"));
+		for (int i = 0; i < 5000; i++) {
+			Row row = table.getRows().append();
+			row.set("id", i);
+			row.set("integer", random.nextInt(10) == 0 ? null : random.nextInt(100));
+			row.set("double", random.nextInt(10) == 0 ? null : random.nextGaussian());
+			row.set("string", random.nextInt(10) == 0 ? null : "s" + random.nextInt(100));
+		}
+
+		for (String column : new String[] { "integer", "double", "string" }) {
+
+			Table top = table.getRows().topN(column, 50);
+			Table bottom = table.getRows().bottomN(column, 50);
+			assertEquals(50, top.getRows().getSize());
+			assertEquals(4, top.getColumns().getSize());
+
+			Table sorted = table.clone();
+			sorted.getRows().dropMissings(column);
+			sorted.getRows().sortDescBy(column);
+			for (int i = 0; i < 50; i++) {
+				assertEquals(sorted.get(i, "id"), top.get(i, "id"));
+				assertEquals(sorted.get(i, column), top.get(i, column));
+			}
+			sorted.getRows().sortAscBy(column);
+			for (int i = 0; i < 50; i++) {
+				assertEquals(sorted.get(i, "id"), bottom.get(i, "id"));
+			}
+
+		}
+
+		// n larger than the table
+		assertEquals(4, table.getRows().topN("integer", 10000).getColumns().getSize());
+		assertEquals(table.getRows().getSize() - table.getColumn("integer").getMissings(),
+				table.getRows().topN("integer", 10000).getRows().getSize());
+		assertEquals(table.getRows().getSize() - table.getColumn("integer").getMissings(),
+				table.getRows().bottomN("integer", Integer.MAX_VALUE).getRows().getSize());
+		assertEquals(0, table.getRows().topN("integer", 0).getRows().getSize());
+		try {
+			table.getRows().topN("integer", -1);
+			fail();
+		} catch (TableException e) {
+		}
+
+		// original table is untouched
+		assertEquals(0, table.get(0, "id"));
+
+	}
+
+	public void testExternalSort() throws IOException {
+
+		Random random = new Random(5);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("id"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new StringColumn("string"));
+		for (int i = 0; i < 5000; i++) {
+			Row row = table.getRows().append();
+			row.set("id", i);
+			row.set("integer", random.nextInt(10) == 0 ? null : random.nextInt(100));
+			row.set("string", "s" + random.nextInt(1000));
+		}
+		String input = File.createTempFile("test", ".csv").getAbsolutePath();
+		String output = File.createTempFile("test", ".csv").getAbsolutePath();
+		TableWriter.writeToCsv(table, input);
+
+		table.getRows().sortBy(SortKey.desc("integer"), SortKey.asc("string"));
+
+		// small budget: many runs are spilled and merged
+		ExternalSorter sorter = TableBuilder.fromCsvFile(input).sortBy(SortKey.desc("integer"), SortKey.asc("string"))
+				.withMemory(50000).withTempDirectory(System.getProperty("java.io.tmpdir"));
+		assertTrue(sorter.getRuns() > 10);
+		sorter.writeToCsv(output);
+
+		Table sorted = TableBuilder.fromCsvFile(output).load();
+		assertEquals(5000, sorted.getRows().getSize());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(table.get(i, "id"), sorted.get(i, "id"));
+		}
+
+		// runs are deleted after writing, the sorter can not be iterated again
+		try {
+			sorter.iterator();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+
+		// fits into memory: nothing is spilled
+		sorter = TableBuilder.fromCsvFile(input).sortBy(SortKey.asc("id")).withChunkSize(1000);
+		assertEquals(0, sorter.getRuns());
+		int chunks = 0;
+		int rows = 0;
+		for (Table chunk : sorter) {
+			assertEquals(rows, chunk.get(0, "id"));
+			rows += chunk.getRows().getSize();
+			chunks++;
+		}
+		assertEquals(5, chunks);
+		assertEquals(5000, rows);
+
+		new File(input).delete();
+		new File(output).delete();
+
+	}
+
+	public void testGroupByAggregators() throws IOException {
+
+		Random random = new Random(13);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("group"));
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		for (int i = 0; i < 20000; i++) {
+			Row row = table.getRows().append();
+			row.set("group", random.nextInt(500));
+			row.set("integer", random.nextInt(1000) - 500);
+			row.set("double", random.nextGaussian());
+		}
+
+		// same results as the aggregators working on one table per group
+		String[][] expected = new String[][] { { "integer", "sum" }, { "double", "sum" }, { "integer", "min" },
+				{ "double", "max" }, { "double", "mean" } };
+		for (String[] test : expected) {
+			String column = test[0];
+			Table actual;
+			IRowAggregator aggregator;
+			if (test[1].equals("sum")) {
+				actual = table.groupBy("group").sum(column);
+				aggregator = new SumRowAggregator("group", column);
+			} else if (test[1].equals("min")) {
+				actual = table.groupBy("group").min(column);
+				aggregator = new MinRowAggregator("group", column);
+			} else if (test[1].equals("max")) {
+				actual = table.groupBy("group").max(column);
+				aggregator = new MaxRowAggregator("group", column);
+			} else {
+				actual = table.groupBy("group").mean(column);
+				aggregator = new MeanRowAggregator("group", column);
+			}
+			Table groups = table.groupBy("group").aggregate(aggregator);
+			actual.getRows().sortAscBy("group");
+			groups.getRows().sortAscBy("group");
+			assertEquals(500, actual.getRows().getSize());
+			for (int i = 0; i < 500; i++) {
+				assertEquals(groups.get(i, "group"), actual.get(i, "group"));
+				Object value1 = groups.get(i, test[1]);
+				Object value2 = actual.get(i, test[1]);
+				if (value1 instanceof Double) {
+					assertEquals((Double) value1, (Double) value2, 1e-9);
+				} else {
+					assertEquals(value1, value2);
+				}
+			}
+		}
+
+		// missing values are ignored
+		Table missings = new Table("missings");
+		missings.getColumns().append(new StringColumn("group"));
+		missings.getColumns().append(new IntegerColumn("value"));
+		missings.getRows().append().set(new Object[] { "a", 1 });
+		missings.getRows().append().set(new Object[] { "a", null });
+		missings.getRows().append().set(new Object[] { "b", null });
+		Table groups = missings.groupBy("group", new CountAggregator(), new SumAggregator("value"),
+				new MeanAggregator("value"), new MaxAggregator("value"));
+		assertEquals(5, groups.getColumns().getSize());
+		assertEquals("a", groups.get(0, "group"));
+		assertEquals(2, groups.get(0, "count"));
+		assertEquals(1, groups.get(0, "sum"));
+		assertEquals(1.0, groups.get(0, "mean"));
+		assertEquals(1, groups.get(0, "max"));
+		assertEquals("b", groups.get(1, "group"));
+		assertEquals(0, groups.get(1, "sum"));
+		assertNull(groups.get(1, "mean"));
+		assertNull(groups.get(1, "max"));
+
+	}
+
+	public void testGroupByMultipleAggregates() throws IOException {
+
+		Table table = TableBuilder.fromCsvFile("data/groups.csv").load();
+		table.getColumns().append(new DoubleColumn("half"), new IBuildValueFunction() {
+			public Object buildValue(Row row) {
+				return row.getInteger("value") / 2.0;
+			}
+		});
+
+		Table groups = table.groupBy("group").agg(Aggregators.count(), Aggregators.sum("value"),
+				Aggregators.mean("half"), Aggregators.min("value"), Aggregators.max("half"));
+		groups.getRows().sortAscBy("group");
+
+		assertEquals(6, groups.getColumns().getSize());
+		assertEquals(3, groups.getRows().getSize());
+		assertEquals(1, groups.get(0, "group"));
+		assertEquals(3, groups.get(0, "count"));
+		assertEquals(6, groups.get(0, "sum_value"));
+		assertEquals(1.0, groups.get(0, "mean_half"));
+		assertEquals(1, groups.get(0, "min_value"));
+		assertEquals(1.5, groups.get(0, "max_half"));
+		assertEquals(3, groups.get(2, "group"));
+		assertEquals(4, groups.get(2, "count"));
+		assertEquals(10, groups.get(2, "sum_value"));
+		assertEquals(1.25, groups.get(2, "mean_half"));
+		assertEquals(2.0, groups.get(2, "max_half"));
+
+	}
+
+	public void testGroupBySumIntegerOverflow() throws IOException {
+
+		// integers are summed exactly and fail if the sum is out of range
+		Table large = new Table("large");
+		large.getColumns().append(new IntegerColumn("group"));
+		large.getColumns().append(new IntegerColumn("value"));
+		large.getRows().append().set(new Object[] { 1, Integer.MAX_VALUE });
+		large.getRows().append().set(new Object[] { 1, 1 });
+		large.getRows().append().set(new Object[] { 1, -1 });
+		large.getRows().append().set(new Object[] { 2, Integer.MAX_VALUE });
+		assertEquals(Integer.MAX_VALUE, large.groupBy("group").sum("value").get(0, "sum"));
+		large.getRows().append().set(new Object[] { 2, 1 });
+		try {
+			large.groupBy("group").sum("value");
+			fail();
+		} catch (TableException e) {
+		}
+
+		// a sum that wraps around to a valid integer is detected, also when the
+		// partial sums of several threads are merged
+		Table wrapped = new Table("wrapped");
+		wrapped.getColumns().append(new IntegerColumn("group"));
+		wrapped.getColumns().append(new IntegerColumn("value"));
+		for (int i = 0; i < 4000; i++) {
+			wrapped.getRows().append().set(new Object[] { 1, i < 2 ? Integer.MAX_VALUE : i < 4 ? 1 : 0 });
+		}
+		for (ParallelUtil parallel : new ParallelUtil[] { ParallelUtil.DEFAULT, new ParallelUtil(4, 1000) }) {
+			try {
+				wrapped.groupBy("group").withParallel(parallel).sum("value");
+				fail();
+			} catch (TableException e) {
+				assertTrue(e.getMessage().contains("4294967296"));
+			}
+		}
+		wrapped.getRows().get(1).set("value", Integer.MIN_VALUE);
+		assertEquals(1, wrapped.groupBy("group").withParallel(new ParallelUtil(4, 1000)).sum("value").get(0, "sum"));
+
+	}
+
+	public void testGroupByMultipleColumns() throws IOException {
+
+		Random random = new Random(17);
+		Table table = new Table("random");
+		table.getColumns().append(new StringColumn("a"));
+		table.getColumns().append(new IntegerColumn("b"));
+		table.getColumns().append(new IntegerColumn("c"));
+		table.getColumns().append(new IntegerColumn("value"));
+		for (int i = 0; i < 10000; i++) {
+			Row row = table.getRows().append();
+			row.set("a", random.nextInt(10) == 0 ? null : "s" + random.nextInt(5));
+			// wide ranges: codes of a, b and c do not fit into a long
+			row.set("b", random.nextInt(4) * (1 << 29));
+			row.set("c", random.nextInt(3) == 0 ? -(1 << 30) : random.nextInt(3));
+			row.set("value", 1);
+		}
+
+		assertTrue(new GroupKeyTable(new AbstractColumn[] { table.getColumn("a"), table.getColumn("b") }).isPacked());
+		assertFalse(new GroupKeyTable(
+				new AbstractColumn[] { table.getColumn("a"), table.getColumn("b"), table.getColumn("c") }).isPacked());
+
+		for (String[] keys : new String[][] { { "a", "b" }, { "a", "b", "c" } }) {
+
+			Table groups = table.groupBy(keys).agg(Aggregators.count());
+			assertEquals(keys.length + 1, groups.getColumns().getSize());
+
+			// same groups as a key built from strings
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			for (int i = 0; i < table.getRows().getSize(); i++) {
+				String key = "";
+				for (String column : keys) {
+					key += table.get(i, column) + "|";
+				}
+				expected.put(key, expected.containsKey(key) ? expected.get(key) + 1 : 1);
+			}
+			assertEquals(expected.size(), groups.getRows().getSize());
+			for (int i = 0; i < groups.getRows().getSize(); i++) {
+				String key = "";
+				for (String column : keys) {
+					key += groups.get(i, column) + "|";
+				}
+				assertEquals(expected.get(key), groups.get(i, "count"));
+			}
+
+		}
+
+	}
+
+	public void testParallelGroupBy() throws IOException {
+
+		Random random = new Random(19);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("few"));
+		table.getColumns().append(new IntegerColumn("many"));
+		table.getColumns().append(new DoubleColumn("value"));
+		for (int i = 0; i < 20000; i++) {
+			Row row = table.getRows().append();
+			row.set("few", random.nextInt(20));
+			row.set("many", random.nextInt(10000));
+			row.set("value", random.nextInt(10) == 0 ? null : random.nextGaussian());
+		}
+
+		for (String key : new String[] { "few", "many" }) {
+
+			Table expected = table.groupBy(key).agg(Aggregators.count(), Aggregators.sum("value"),
+					Aggregators.mean("value"), Aggregators.min("value"), Aggregators.max("value"));
+
+			// a small sample makes every key look like many groups, rows are
+			// partitioned by key
+			for (int sampleSize : new int[] { HashAggregator.SAMPLE_SIZE, 8 }) {
+
+				Table actual = table.groupBy(key).withParallel(new ParallelUtil(4, 1000)).withSampleSize(sampleSize)
+						.agg(Aggregators.count(), Aggregators.sum("value"), Aggregators.mean("value"),
+								Aggregators.min("value"), Aggregators.max("value"));
+
+				// same groups in the same order
+				assertEquals(expected.getRows().getSize(), actual.getRows().getSize());
+				for (int i = 0; i < expected.getRows().getSize(); i++) {
+					assertEquals(expected.get(i, key), actual.get(i, key));
+					assertEquals(expected.get(i, "count"), actual.get(i, "count"));
+					assertEquals(expected.get(i, "min_value"), actual.get(i, "min_value"));
+					assertEquals(expected.get(i, "max_value"), actual.get(i, "max_value"));
+					if (expected.get(i, "mean_value") != null) {
+						assertEquals((Double) expected.get(i, "sum_value"), (Double) actual.get(i, "sum_value"), 1e-9);
+						assertEquals((Double) expected.get(i, "mean_value"), (Double) actual.get(i, "mean_value"), 1e-9);
+					} else {
+						assertNull(actual.get(i, "mean_value"));
+					}
+				}
+
+			}
+
+		}
+
+	}
+
+	public void testSortedGroupBy() throws IOException {
+
+		Random random = new Random(7);
+		Table table = new Table("random");
+		table.getColumns().append(new StringColumn("name"));
+		table.getColumns().append(new IntegerColumn("key"));
+		table.getColumns().append(new DoubleColumn("value"));
+		for (int i = 0; i < 5000; i++) {
+			Row row = table.getRows().append();
+			row.set("name", random.nextInt(10) == 0 ? null : "name" + random.nextInt(5));
+			row.set("key", random.nextInt(40));
+			row.set("value", random.nextDouble() * 100);
+		}
+		assertFalse(RunAggregator.isSorted(table, "key"));
+
+		Table counts = table.groupBy("key").count();
+		Map<Object, Object> expected = new HashMap<Object, Object>();
+		for (int i = 0; i < counts.getRows().getSize(); i++) {
+			expected.put(counts.get(i, "key"), counts.get(i, "count"));
+		}
+
+		// groups in key order
+		Table sorted = table.groupBy("key").sorted().count();
+		assertEquals(expected.size(), sorted.getRows().getSize());
+		for (int i = 0; i < sorted.getRows().getSize(); i++) {
+			assertEquals(i, sorted.get(i, "key"));
+			assertEquals(expected.get(i), sorted.get(i, "count"));
+		}
+
+		// sorted input is detected
+		Table ordered = table.groupBy("name", "key").sorted().agg(Aggregators.count(), Aggregators.sum("value"));
+		Table hashed = table.groupBy("name", "key").sorted().agg(Aggregators.min("value"), Aggregators.max("value"),
+				Aggregators.mean("value"), Aggregators.median("value"));
+		table.getRows().sortBy(SortKey.asc("name"), SortKey.asc("key"));
+		assertTrue(RunAggregator.isSorted(table, "name", "key"));
+		Table runs = table.groupBy("name", "key").agg(Aggregators.count(), Aggregators.sum("value"));
+		assertEquals(ordered.getRows().getSize(), runs.getRows().getSize());
+		assertNull(runs.get(0, "name"));
+		for (int i = 0; i < runs.getRows().getSize(); i++) {
+			assertEquals(ordered.get(i, "name"), runs.get(i, "name"));
+			assertEquals(ordered.get(i, "key"), runs.get(i, "key"));
+			assertEquals(ordered.get(i, "count"), runs.get(i, "count"));
+			assertEquals((Double) ordered.get(i, "sum_value"), (Double) runs.get(i, "sum_value"), 1e-9);
+		}
+
+		// accumulators are reset between runs
+		Table presorted = table.groupBy("name", "key").presorted().agg(Aggregators.min("value"),
+				Aggregators.max("value"), Aggregators.mean("value"), Aggregators.median("value"));
+		assertEquals(hashed.getRows().getSize(), presorted.getRows().getSize());
+		for (int i = 0; i < hashed.getRows().getSize(); i++) {
+			for (String column : hashed.getColumns().getNames()) {
+				assertEquals(hashed.get(i, column), presorted.get(i, column));
+			}
+		}
+
+		// histogram in bin order without sorting the result
+		Table hist = table.hist("value", 10);
+		int total = 0;
+		for (int i = 0; i < hist.getRows().getSize(); i++) {
+			if (i > 0) {
+				assertTrue((Double) hist.get(i - 1, "value") < (Double) hist.get(i, "value"));
+			}
+			total += (Integer) hist.get(i, "count");
+		}
+		assertEquals(10, hist.getRows().getSize());
+		assertEquals(5000, total);
+
+	}
+
+	public void testQuantiles() throws IOException {
+
+		Table table = new Table("latencies");
+		table.getColumns().append(new StringColumn("endpoint"));
+		table.getColumns().append(new IntegerColumn("latency"));
+		for (int i = 1; i <= 1000; i++) {
+			table.getRows().append().set(new Object[] { i % 2 == 0 ? "a" : "b", i });
+		}
+		table.getRows().append().set(new Object[] { "a", null });
+
+		// exact quantiles interpolate between ranks
+		AbstractColumn latency = table.getColumn("latency");
+		assertEquals(500.5, latency.getMedian());
+		assertEquals(1.0, latency.getQuantile(0));
+		assertEquals(1000.0, latency.getQuantile(1));
+		assertEquals(950.05, (Double) latency.getQuantile(0.95), 1e-9);
+		assertTrue(latency.getSummary().contains("Median.: 500.5"));
+		assertNull(table.getColumn("endpoint").getMedian());
+
+		Table result = table.groupBy("endpoint").agg(Aggregators.count(), Aggregators.median("latency"),
+				Aggregators.quantile("latency", 0.99), Aggregators.approxQuantile("latency", 0.5),
+				Aggregators.approxQuantile("latency", 0.999));
+		assertEquals("a", result.get(1, "endpoint"));
+		assertEquals(500.0, result.get(0, "median_latency"));
+		assertEquals(501.0, result.get(1, "median_latency"));
+		assertEquals(990.02, (Double) result.get(1, "p99_latency"), 1e-9);
+		assertEquals(501.0, (Double) result.get(1, "p50_latency"), 5);
+		assertEquals(999.0, (Double) result.get(1, "p99.9_latency"), 2);
+
+		try {
+			Aggregators.quantile("latency", 1.5);
+			fail();
+		} catch (TableException e) {
+			assertTrue(e.getMessage().contains("1.5"));
+		}
+
+		// digests have bounded size and can be merged
+		Random random = new Random(3);
+		double[] values = new double[200000];
+		TDigest digest = new TDigest();
+		TDigest other = new TDigest();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextGaussian();
+			(i % 2 == 0 ? digest : other).add(values[i]);
+		}
+		digest.merge(other);
+		assertEquals(values.length, digest.getCount());
+		assertTrue(digest.getCentroids() <= 2 * TDigest.DEFAULT_COMPRESSION);
+		for (double p : new double[] { 0.01, 0.5, 0.95, 0.99 }) {
+			double exact = QuantileUtil.quantile(values.clone(), values.length, p);
+			assertEquals(exact, digest.quantile(p), 0.01);
+		}
+
+	}
+
+	public void testExternalGroupBy() throws IOException {
+
+		Random random = new Random(11);
+		Table table = new Table("random");
+		table.getColumns().append(new StringColumn("user"));
+		table.getColumns().append(new IntegerColumn("value"));
+		for (int i = 0; i < 20000; i++) {
+			Row row = table.getRows().append();
+			row.set("user", "u" + random.nextInt(5000));
+			row.set("value", random.nextInt(10) == 0 ? null : random.nextInt(1000));
+		}
+		String input = File.createTempFile("test", ".csv").getAbsolutePath();
+		TableWriter.writeToCsv(table, input);
+
+		Table expected = table.groupBy("user").agg(Aggregators.count(), Aggregators.sum("value"),
+				Aggregators.max("value"));
+		Map<Object, Integer> index = new HashMap<Object, Integer>();
+		for (int i = 0; i < expected.getRows().getSize(); i++) {
+			index.put(expected.get(i, "user"), i);
+		}
+
+		// small budget: rows of groups that do not fit into memory are partitioned
+		// to temp files, too large partitions are split again
+		ExternalAggregator aggregator = TableBuilder.fromCsvFile(input).groupBy("user")
+				.agg(Aggregators.count(), Aggregators.sum("value"), Aggregators.max("value")).withMemory(200000)
+				.withPartitions(4).withTempDirectory(System.getProperty("java.io.tmpdir"));
+		assertEquals(4, aggregator.getPartitions());
+		Table result = aggregator.load();
+		assertEquals(expected.getRows().getSize(), result.getRows().getSize());
+		for (int i = 0; i < result.getRows().getSize(); i++) {
+			int row = index.get(result.get(i, "user"));
+			assertEquals(expected.get(row, "count"), result.get(i, "count"));
+			assertEquals(expected.get(row, "sum_value"), result.get(i, "sum_value"));
+			assertEquals(expected.get(row, "max_value"), result.get(i, "max_value"));
+		}
+
+		// an abandoned iteration is closed by try-with-resources, the aggregator can
+		// be iterated only once
+		try (ExternalAggregator partitions = TableBuilder.fromCsvFile(input).groupBy("user")
+				.agg(Aggregators.count()).withMemory(200000).withPartitions(4)) {
+			assertTrue(partitions.iterator().hasNext());
+			try {
+				partitions.iterator();
+				fail();
+			} catch (IllegalStateException e) {
+			}
+		}
+
+		// input larger than the budget but few groups: chunks are aggregated in
+		// memory and nothing is spilled
+		Table few = new Table("few");
+		few.getColumns().append(new StringColumn("user"));
+		few.getColumns().append(new IntegerColumn("value"));
+		for (int i = 0; i < 20000; i++) {
+			few.getRows().append().set(new Object[] { "u" + (i % 10), i });
+		}
+		String fewInput = File.createTempFile("test", ".csv").getAbsolutePath();
+		TableWriter.writeToCsv(few, fewInput);
+		Table fewExpected = few.groupBy("user").agg(Aggregators.count(), Aggregators.sum("value"));
+		aggregator = TableBuilder.fromCsvFile(fewInput).groupBy("user")
+				.agg(Aggregators.count(), Aggregators.sum("value")).withMemory(200000).withPartitions(4);
+		assertEquals(0, aggregator.getPartitions());
+		result = aggregator.load();
+		assertEquals(10, result.getRows().getSize());
+		for (int i = 0; i < result.getRows().getSize(); i++) {
+			assertEquals(fewExpected.get(i, "user"), result.get(i, "user"));
+			assertEquals(fewExpected.get(i, "count"), result.get(i, "count"));
+			assertEquals(fewExpected.get(i, "sum_value"), result.get(i, "sum_value"));
+		}
+		new File(fewInput).delete();
+
+		// fits into memory: nothing is spilled
+		aggregator = TableBuilder.fromCsvFile(input).groupBy("user").agg(Aggregators.count());
+		assertEquals(0, aggregator.getPartitions());
+		result = aggregator.load();
+		assertEquals(expected.getRows().getSize(), result.getRows().getSize());
+		for (int i = 0; i < result.getRows().getSize(); i++) {
+			assertEquals(expected.get(i, "user"), result.get(i, "user"));
+			assertEquals(expected.get(i, "count"), result.get(i, "count"));
+		}
+
+		new File(input).delete();
+
+	}
+
+	public void testSplitByViews() throws IOException {
+
+		Table table = new Table("people");
+		table.getColumns().append(new StringColumn("name"));
+		table.getColumns().append(new IntegerColumn("age"));
+		for (int i = 0; i < 100; i++) {
+			table.getRows().append().set(new Object[] { "p" + i, i });
+		}
+
+		List<Table> groups = table.splitBy(new IRowMapper() {
+			public Object getKey(Row row) {
+				return row.getInteger("age") % 3;
+			}
+		});
+
+		// one view per group in order of their first row
+		assertEquals(3, groups.size());
+		TableView view = (TableView) groups.get(1);
+		assertEquals("people:1", view.getName());
+		assertEquals(33, view.getSize());
+		assertEquals(1, view.getPositions()[0]);
+		assertEquals(97, view.getPositions()[32]);
+		assertEquals("p4", view.get(1, "name"));
+		assertEquals(7, view.getRow(2).getInteger("age"));
+
+		// reading and writing without a copy
+		final int[] sum = new int[1];
+		view.forEachRow(new IRowProcessor() {
+			public void process(Row row) {
+				sum[0] += row.getInteger("age");
+			}
+		});
+		assertEquals(1617, sum[0]);
+		assertEquals(33, view.getRows().getSize());
+		assertEquals(2, view.getColumns().getSize());
+		assertEquals(1617, view.getColumn("age").getSum());
+		assertEquals("p97", view.getColumn(0).get(32));
+		Table top = view.getRows().topN("age", 5);
+		assertEquals(97, top.get(0, "age"));
+		assertEquals(85, top.get(4, "age"));
+		assertFalse(view.isMaterialized());
+		String output = File.createTempFile("test", ".csv").getAbsolutePath();
+		TableWriter.writeToCsv(view, output);
+		assertFalse(view.isMaterialized());
+		Table written = TableBuilder.fromCsvFile(output).load();
+		assertEquals(33, written.getRows().getSize());
+		assertEquals(97, written.get(32, "age"));
+		new File(output).delete();
+
+		// changes materialize the view and do not touch the parent
+		view.getRow(0).set("name", "changed");
+		assertTrue(view.isMaterialized());
+		assertEquals("changed", view.get(0, "name"));
+		assertEquals("p1", table.get(1, "name"));
+		assertEquals(33, view.getRows().getSize());
+		assertEquals(1617, view.getColumn("age").getSum());
+
+		// views fail once the rows of the parent changed
+		TableView other = (TableView) groups.get(2);
+		table.getRows().sortDescBy("age");
+		try {
+			other.get(0, "name");
+			fail();
+		} catch (TableException e) {
+		}
+		try {
+			other.materialize();
+			fail();
+		} catch (TableException e) {
+		}
+		assertEquals("p4", view.get(1, "name"));
+
+	}
+
+	public void testViewInvalidation() throws IOException {
+
+		Table table = new Table("people");
+		table.getColumns().append(new StringColumn("name"));
+		table.getColumns().append(new IntegerColumn("age"));
+		for (int i = 0; i < 10; i++) {
+			table.getRows().append().set(new Object[] { "p" + i, i % 2 == 0 ? null : i });
+		}
+		TableView view = new TableView("odd", table, new int[] { 1, 2, 3 });
+
+		// columns are wrapped once
+		assertSame(view.getColumn("age"), view.getColumn("age"));
+		assertSame(view.getColumn(0), view.getColumn("name"));
+
+		// value changes keep the positions valid and are seen by the view
+		table.getRow(1).set("name", "changed");
+		table.fillMissings(0);
+		table.replaceValue(new Object[] { 3 }, new Object[] { 30 });
+		assertEquals("changed", view.get(0, "name"));
+		assertEquals(0, view.get(1, "age"));
+		assertEquals(30, view.getColumn("age").get(2));
+		assertFalse(view.isMaterialized());
+
+		// appended rows and columns invalidate the view
+		table.getRows().append().set(new Object[] { "p10", 10 });
+		try {
+			view.get(0, "name");
+			fail();
+		} catch (TableException e) {
+		}
+		TableView other = new TableView("other", table, new int[] { 0 });
+		table.getColumns().append(new IntegerColumn("score"));
+		try {
+			other.getColumn("name");
+			fail();
+		} catch (TableException e) {
+		}
+		try {
+			other.getRows().getSize();
+			fail();
+		} catch (TableException e) {
+		}
+
+		// a materialized view is independent of the parent
+		TableView copy = new TableView("copy", table, new int[] { 0, 10 });
+		copy.materialize();
+		table.getRows().sortDescBy("age");
+		assertEquals("p0", copy.get(0, "name"));
+		assertEquals("p10", copy.get(1, "name"));
+
+	}
+
+	public void testHistogram() throws IOException {
+
+		Random random = new Random(13);
+		Table table = new Table("random");
+		table.getColumns().append(new IntegerColumn("integer"));
+		table.getColumns().append(new DoubleColumn("double"));
+		for (int i = 0; i < 10000; i++) {
+			Row row = table.getRows().append();
+			row.set("integer", random.nextInt(20) == 0 ? null : random.nextInt(1000) - 500);
+			row.set("double", random.nextDouble());
+		}
+
+		HistogramBuilder builder = new HistogramBuilder().withParallel(new ParallelUtil(4, 1000));
+
+		// fixed bins aligned to multiples of the bin size
+		Histogram histogram = builder.fixed(table.getColumn("integer"), 100);
+		assertEquals(10, histogram.getBins());
+		assertEquals(-500.0, histogram.getEdges()[0]);
+		long[] expected = new long[10];
+		int missings = 0;
+		for (int i = 0; i < 10000; i++) {
+			Object value = table.get(i, "integer");
+			if (value == null) {
+				missings++;
+			} else {
+				expected[((Integer) value + 500) / 100]++;
+			}
+		}
+		assertTrue(Arrays.equals(expected, histogram.getCounts()));
+		assertEquals(missings, histogram.getMissings());
+
+		Table hist = table.hist("integer", 100);
+		assertEquals(10, hist.getRows().getSize());
+		assertEquals(-500, hist.get(0, "integer"));
+		assertEquals((int) expected[9], hist.get(9, "count"));
+
+		// explicit edges, values outside are not counted
+		histogram = builder.edges(table.getColumn("integer"), -100, 0, 100, 499);
+		assertEquals(3, histogram.getBins());
+		assertEquals(expected[4], histogram.getCounts()[0]);
+		assertEquals(expected[5], histogram.getCounts()[1]);
+		assertEquals(10000 - missings - histogram.getCounts()[0] - histogram.getCounts()[1]
+				- histogram.getCounts()[2], histogram.getOutside());
+
+		// quantile bins hold the same number of values
+		histogram = builder.quantiles(table.getColumn("double"), 4);
+		assertEquals(4, histogram.getBins());
+		for (long count : histogram.getCounts()) {
+			assertEquals(2500, count);
+		}
+
+		// several columns at once
+		Histogram[] histograms = builder.fixed(table, 0.5, "integer", "double");
+		assertEquals(1999, histograms[0].getBins());
+		assertEquals(2, histograms[1].getBins());
+		assertEquals(10000, histograms[1].getCounts()[0] + histograms[1].getCounts()[1]);
+
+
+		// infinite values and NaN are not binned
+		Table special = new Table("special");
+		special.getColumns().append(new DoubleColumn("value"));
+		special.getRows().append().set(new Object[] { 1.5 });
+		special.getRows().append().set(new Object[] { Double.POSITIVE_INFINITY });
+		special.getRows().append().set(new Object[] { Double.NEGATIVE_INFINITY });
+		special.getRows().append().set(new Object[] { Double.NaN });
+		special.getRows().append().set(new Object[] { null });
+		special.getRows().append().set(new Object[] { 3.5 });
+		histogram = Histogram.fixed(special.getColumn("value"), 1);
+		assertEquals(3, histogram.getBins());
+		assertEquals(1, histogram.getCounts()[0]);
+		assertEquals(1, histogram.getCounts()[2]);
+		assertEquals(1, histogram.getMissings());
+		assertEquals(3, histogram.getOutside());
+		histogram = Histogram.quantiles(special.getColumn("value"), 2);
+		assertEquals(1.5, histogram.getEdges()[0]);
+		assertEquals(3.5, histogram.getEdges()[histogram.getEdges().length - 1]);
+		assertEquals(3, histogram.getOutside());
+
+		// infinite values and NaN do not widen the range or end up in a bin when
+		// chunks are counted in parallel
+		special = new Table("special");
+		special.getColumns().append(new DoubleColumn("value"));
+		int finite = 0;
+		for (int i = 0; i < 10000; i++) {
+			double value = i % 7 == 0 ? Double.NaN
+					: i % 11 == 0 ? Double.POSITIVE_INFINITY
+							: i % 13 == 0 ? Double.NEGATIVE_INFINITY : random.nextDouble() * 10;
+			if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+				finite++;
+			}
+			special.getRows().append().set(new Object[] { value });
+		}
+		histogram = builder.fixed(special.getColumn("value"), 1);
+		assertEquals(10, histogram.getBins());
+		long binned = 0;
+		for (long count : histogram.getCounts()) {
+			binned += count;
+		}
+		assertEquals(finite, binned);
+		assertEquals(10000 - finite, histogram.getOutside());
+		histogram = builder.edges(special.getColumn("value"), 0, 5, 10);
+		assertEquals(finite, histogram.getCounts()[0] + histogram.getCounts()[1]);
+		assertEquals(10000 - finite, histogram.getOutside());
+
+		// the number of fixed bins is limited
+		try {
+			new HistogramBuilder().withMaxBins(5).fixed(special.getColumn("value"), 1);
+			fail();
+		} catch (TableException e) {
+			assertTrue(e.getMessage().contains("5 bins"));
+		}
+		assertEquals(10, new HistogramBuilder().withMaxBins(10).fixed(special.getColumn("value"), 1).getBins());
+
+	}
+
+	public void testWindowFunctions() throws IOException {
+
+		// rows of two partitions in random order
+		Random random = new Random(17);
+		Table table = new Table("series");
+		table.getColumns().append(new StringColumn("k"));
+		table.getColumns().append(new IntegerColumn("t"));
+		table.getColumns().append(new IntegerColumn("x"));
+		for (int i = 0; i < 200; i++) {
+			table.getRows().append().set(new Object[] { i % 2 == 0 ? "a" : "b", i / 2, random.nextInt(5) == 0 ? null : random.nextInt(100) });
+		}
+		table.getRows().sortBy(SortKey.asc("x"));
+
+		table.window().partitionBy("k").orderBy("t").rollingMean("x", 7).rollingSum("x", 3).rollingMin("x", 5)
+				.rollingMax("x", 5).cumSum("x").cumMax("x").lag("x", 1).lead("x", 2).rowNumber();
+
+		// naive evaluation over the series of each partition
+		for (String k : new String[] { "a", "b" }) {
+			Integer[] series = new Integer[100];
+			int[] rows = new int[100];
+			for (int i = 0; i < 200; i++) {
+				if (table.get(i, "k").equals(k)) {
+					int t = (Integer) table.get(i, "t");
+					series[t] = (Integer) table.get(i, "x");
+					rows[t] = i;
+				}
+			}
+			for (int t = 0; t < 100; t++) {
+				int row = rows[t];
+				double sum = 0;
+				int count = 0;
+				Integer min = null;
+				Integer max = null;
+				for (int j = Math.max(0, t - 6); j <= t; j++) {
+					if (series[j] != null) {
+						sum += series[j];
+						count++;
+					}
+				}
+				for (int j = Math.max(0, t - 4); j <= t; j++) {
+					if (series[j] != null) {
+						min = min == null ? series[j] : Math.min(min, series[j]);
+						max = max == null ? series[j] : Math.max(max, series[j]);
+					}
+				}
+				int sum3 = 0;
+				for (int j = Math.max(0, t - 2); j <= t; j++) {
+					sum3 += series[j] != null ? series[j] : 0;
+				}
+				int cumSum = 0;
+				for (int j = 0; j <= t; j++) {
+					cumSum += series[j] != null ? series[j] : 0;
+				}
+				if (count > 0) {
+					assertEquals(sum / count, (Double) table.get(row, "rolling_mean_7_x"), 1e-9);
+				} else {
+					assertNull(table.get(row, "rolling_mean_7_x"));
+				}
+				assertEquals(min, table.get(row, "rolling_min_5_x"));
+				assertEquals(max, table.get(row, "rolling_max_5_x"));
+				if (table.get(row, "rolling_sum_3_x") != null) {
+					assertEquals(sum3, table.get(row, "rolling_sum_3_x"));
+				}
+				if (table.get(row, "cum_sum_x") != null) {
+					assertEquals(cumSum, table.get(row, "cum_sum_x"));
+				}
+				assertEquals(t > 0 ? series[t - 1] : null, table.get(row, "lag_1_x"));
+				assertEquals(t < 98 ? series[t + 2] : null, table.get(row, "lead_2_x"));
+				assertEquals(t + 1, table.get(row, "row_number"));
+			}
+		}
+
+		// ranks with ties
+		Table scores = new Table("scores");
+		scores.getColumns().append(new IntegerColumn("score"));
+		for (int score : new int[] { 30, 10, 20, 20, 10 }) {
+			scores.getRows().append().set("score", score);
+		}
+		scores.window().orderBy(SortKey.desc("score")).rank().denseRank();
+		int[] ranks = { 1, 4, 2, 2, 4 };
+		int[] denseRanks = { 1, 3, 2, 2, 3 };
+		for (int i = 0; i < 5; i++) {
+			assertEquals(ranks[i], scores.get(i, "rank"));
+			assertEquals(denseRanks[i], scores.get(i, "dense_rank"));
+		}
+
+		// integer sums are exact and fail if they do not fit into an integer
+		Table large = new Table("large");
+		large.getColumns().append(new IntegerColumn("x"));
+		for (int x : new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, -Integer.MAX_VALUE, 1 }) {
+			large.getRows().append().set("x", x);
+		}
+		large.window().rollingMean("x", 2);
+		assertEquals((double) Integer.MAX_VALUE, large.get(1, "rolling_mean_2_x"));
+		assertEquals(0.0, large.get(2, "rolling_mean_2_x"));
+		try {
+			large.window().rollingSum("x", 2);
+			fail();
+		} catch (TableException e) {
+			assertTrue(e.getMessage().contains("4294967294"));
+		}
+		large.getRows().select(new int[] { 0, 2, 3 });
+		large.window().rollingSum("x", 2);
+		assertEquals(0, large.get(1, "rolling_sum_2_x"));
+		assertEquals(-Integer.MAX_VALUE + 1, large.get(2, "rolling_sum_2_x"));
+
+		// double sums do not accumulate rounding errors of rows that left the window
+		Table doubles = new Table("doubles");
+		doubles.getColumns().append(new DoubleColumn("x"));
+		for (int i = 0; i < 1000; i++) {
+			doubles.getRows().append().set("x", i % 2 == 0 ? 1e16 : 0.1);
+		}
+		doubles.getRows().append().set("x", 0.1);
+		doubles.getRows().append().set("x", 0.1);
+		doubles.window().rollingSum("x", 2);
+		assertEquals(0.2, (Double) doubles.get(1001, "rolling_sum_2_x"), 1e-12);
+
+	}
+
+	public void testPivot() throws IOException {
+
+		Table table = new Table("expression");
+		table.getColumns().append(new StringColumn("gene"));
+		table.getColumns().append(new StringColumn("sample"));
+		table.getColumns().append(new DoubleColumn("value"));
+		String[][] rows = { { "b", "s2", "1" }, { "a", "s1", "2" }, { "b", "s1", "3" }, { "b", "s2", "5" },
+				{ "a", null, "7" }, { "c", "s3", "11" } };
+		for (String[] row : rows) {
+			table.getRows().append().set(new Object[] { row[0], row[1], Double.parseDouble(row[2]) });
+		}
+
+		Table pivot = table.pivot("gene", "sample", Aggregators.sum("value"));
+		assertEquals(3, pivot.getRows().getSize());
+		assertEquals(Arrays.asList("gene", "s1", "s2", "s3"), Arrays.asList(pivot.getColumns().getNames()));
+		// rows in order of first appearance, columns sorted
+		assertEquals("b", pivot.get(0, "gene"));
+		assertEquals(3.0, pivot.get(0, "s1"));
+		assertEquals(6.0, pivot.get(0, "s2"));
+		assertEquals("a", pivot.get(1, "gene"));
+		assertEquals(2.0, pivot.get(1, "s1"));
+		assertEquals(11.0, pivot.get(2, "s3"));
+
+		Table means = table.pivot("gene", "sample", Aggregators.mean("value"));
+		assertEquals(3.0, means.get(0, "s2"));
+		assertNull(means.get(1, "s2"));
+
+		Table counts = table.crosstab("gene", "sample");
+		assertEquals(2, counts.get(0, "s2"));
+		assertEquals(0, counts.get(2, "s1"));
+
+		// too many columns
+		try {
+			new Pivot(table, "gene", "value").withMaxColumns(3).aggregate(Aggregators.count());
+			fail();
+		} catch (TableException e) {
+		}
+		assertEquals(6, new Pivot(table, "value", "gene").withMaxColumns(3).aggregate(Aggregators.count())
+				.getRows().getSize());
+
+		// a value named like the row key is prefixed, equal names fail
+		table.getRows().append().set(new Object[] { "a", "gene", 1.0 });
+		Table prefixed = table.crosstab("gene", "sample");
+		assertEquals(Arrays.asList("gene", "sample_gene", "s1", "s2", "s3"),
+				Arrays.asList(prefixed.getColumns().getNames()));
+		assertEquals(1, prefixed.get(1, "sample_gene"));
+		table.getRows().append().set(new Object[] { "a", "sample_gene", 1.0 });
+		try {
+			table.crosstab("gene", "sample");
+			fail();
+		} catch (TableException e) {
+			assertTrue(e.getMessage().contains("'sample_gene'"));
+		}
+
+		// different values formatted to the same name fail
+		Table doubles = new Table("doubles");
+		doubles.getColumns().append(new StringColumn("gene"));
+		doubles.getColumns().append(new DoubleColumn("dose"));
+		doubles.getRows().append().set(new Object[] { "a", 1.0001 });
+		doubles.getRows().append().set(new Object[] { "b", 1.0002 });
+		doubles.getRows().append().set(new Object[] { "b", 2.0 });
+		try {
+			doubles.crosstab("gene", "dose");
+			fail();
+		} catch (TableException e) {
+			assertTrue(e.getMessage().contains("'1.000'"));
+		}
+		doubles.getRows().drop(Arrays.asList(false, true, false));
+		assertEquals(Arrays.asList("gene", "1.000", "2.000"),
+				Arrays.asList(doubles.crosstab("gene", "dose").getColumns().getNames()));
+
+	}
+
+	public void testDropDuplicatesByColumns() throws IOException {
+
+		// "Aa" and "BB" have the same hash code
+		Table table = new Table("dups");
+		table.getColumns().append(new StringColumn("a"));
+		table.getColumns().append(new IntegerColumn("b"));
+		table.getColumns().append(new IntegerColumn("id"));
+		Object[][] rows = { { "Aa", 1, 0 }, { "BB", 1, 1 }, { "Aa", 1, 2 }, { null, 1, 3 }, { null, 1, 4 },
+				{ "BB", 2, 5 } };
+		for (Object[] row : rows) {
+			table.getRows().append().set(row);
+		}
+
+		Table all = table.clone();
+		all.getRows().dropDuplicates("a", "b");
+		assertEquals(4, all.getRows().getSize());
+		assertEquals(Arrays.asList(0, 1, 3, 5), Arrays.asList(all.getColumn("id").toArray()));
+
+		Table last = table.clone();
+		last.getRows().dropDuplicates(true, "a");
+		assertEquals(Arrays.asList(2, 4, 5), Arrays.asList(last.getColumn("id").toArray()));
+
+		Table none = table.clone();
+		none.getRows().dropDuplicates();
+		assertEquals(6, none.getRows().getSize());
+
+		// partitioned in parallel, same result as on one thread
+		Table large = new Table("large");
+		large.getColumns().append(new IntegerColumn("k"));
+		large.getColumns().append(new StringColumn("s"));
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			large.getRows().append().set(new Object[] { random.nextInt(3000), random.nextBoolean() ? "Aa" : "BB" });
+		}
+		Bitmap expected = new Deduplicator(large, "k", "s").withKeepLast(true).getDuplicates();
+		Bitmap duplicates = new Deduplicator(large, "k", "s").withKeepLast(true)
+				.withParallel(new ParallelUtil(4, 1000)).getDuplicates();
+		assertTrue(Arrays.equals(expected.toArray(), duplicates.toArray()));
+		large.getRows().drop(new Deduplicator(large, "k", "s").withParallel(new ParallelUtil(4, 1000)).getDuplicates());
+		assertEquals(20000 - expected.getCardinality(), large.getRows().getSize());
+		assertEquals(large.getRows().getSize(), large.groupBy("k", "s").count().getRows().getSize());
+
+	}
+
+	public void testJoin() throws IOException {
+
+		Table left = new Table("left");
+		left.getColumns().append(new StringColumn("k"));
+		left.getColumns().append(new IntegerColumn("a"));
+		Object[][] leftRows = { { "x", 1 }, { "y", 2 }, { null, 3 }, { "x", 4 }, { "z", 5 } };
+		for (Object[] row : leftRows) {
+			left.getRows().append().set(row);
+		}
+
+		Table right = new Table("right");
+		right.getColumns().append(new StringColumn("k"));
+		right.getColumns().append(new IntegerColumn("a"));
+		right.getColumns().append(new IntegerColumn("b"));
+		Object[][] rightRows = { { "x", 10, 100 }, { "w", 20, 200 }, { "x", 30, 300 }, { null, 40, 400 } };
+		for (Object[] row : rightRows) {
+			right.getRows().append().set(row);
+		}
+
+		Table inner = left.join(right).on("k").type(JoinType.INNER);
+		assertEquals(Arrays.asList("k", "a", "a_2", "b"), Arrays.asList(inner.getColumns().getNames()));
+		assertEquals(Arrays.asList(1, 1, 4, 4), Arrays.asList(inner.getColumn("a").toArray()));
+		assertEquals(Arrays.asList(10, 30, 10, 30), Arrays.asList(inner.getColumn("a_2").toArray()));
+
+		Table leftJoin = left.join(right).on("k").left();
+		assertEquals(Arrays.asList(1, 1, 2, 3, 4, 4, 5), Arrays.asList(leftJoin.getColumn("a").toArray()));
+		assertEquals(Arrays.asList(100, 300, null, null, 100, 300, null),
+				Arrays.asList(leftJoin.getColumn("b").toArray()));
+
+		// unmatched rows of the right table last, keys from the right table
+		Table rightJoin = left.join(right).on("k").right();
+		assertEquals(Arrays.asList("x", "x", "x", "x", "w", null), Arrays.asList(rightJoin.getColumn("k").toArray()));
+		assertEquals(Arrays.asList(1, 1, 4, 4, null, null), Arrays.asList(rightJoin.getColumn("a").toArray()));
+		assertEquals(Arrays.asList(10, 30, 10, 30, 20, 40), Arrays.asList(rightJoin.getColumn("a_2").toArray()));
+
+		Table full = left.join(right).on("k").full();
+		assertEquals(9, full.getRows().getSize());
+		assertEquals(Arrays.asList(1, 1, 2, 3, 4, 4, 5, null, null), Arrays.asList(full.getColumn("a").toArray()));
+
+		// same result if the left table is the smaller one
+		Table fullSwapped = right.join(left).on("k").withSuffix("_left").full();
+		assertEquals(9, fullSwapped.getRows().getSize());
+		assertEquals(Arrays.asList(10, 10, 20, 30, 30, 40, null, null, null),
+				Arrays.asList(fullSwapped.getColumn("a").toArray()));
+		assertEquals(Arrays.asList(1, 4, null, 1, 4, null, 2, 3, 5),
+				Arrays.asList(fullSwapped.getColumn("a_left").toArray()));
+
+		// tables are not changed
+		assertEquals(2, left.getColumns().getSize());
+		assertEquals(5, left.getRows().getSize());
+
+		try {
+			left.join(right).on(new String[] { "a" }, new String[] { "k" }).inner();
+			fail();
+		} catch (TableException e) {
+		}
+
+	}
+
+	public void testSortMergeJoin() throws IOException {
+
+		Random random = new Random(11);
+		Table left = new Table("left");
+		left.getColumns().append(new IntegerColumn("k"));
+		left.getColumns().append(new StringColumn("s"));
+		left.getColumns().append(new IntegerColumn("id"));
+		for (int i = 0; i < 500; i++) {
+			Integer key = random.nextInt(20) == 0 ? null : random.nextInt(100);
+			left.getRows().append().set(new Object[] { key, random.nextBoolean() ? "a" : "b", i });
+		}
+		Table right = new Table("right");
+		right.getColumns().append(new IntegerColumn("k"));
+		right.getColumns().append(new StringColumn("s"));
+		right.getColumns().append(new DoubleColumn("value"));
+		for (int i = 0; i < 300; i++) {
+			Integer key = random.nextInt(20) == 0 ? null : random.nextInt(150);
+			right.getRows().append().set(new Object[] { key, random.nextBoolean() ? "a" : "b", (double) i });
+		}
+
+		for (JoinType type : JoinType.values()) {
+			Table hash = left.join(right).on("k", "s").type(type);
+			Table merge = left.join(right).on("k", "s").sortMerge().type(type);
+			assertEquals(hash.getRows().getSize(), merge.getRows().getSize());
+			for (String column : hash.getColumns().getNames()) {
+				assertEquals(Arrays.asList(hash.getColumn(column).toArray()),
+						Arrays.asList(merge.getColumn(column).toArray()));
+			}
+		}
+
+		// sorted tables are merged automatically, the result is in key order
+		left.getRows().sortAscBy("k");
+		right.getRows().sortAscBy("k");
+		Table inner = left.join(right).on("k").inner();
+		Table shuffled = right.clone();
+		shuffled.getRows().sortDescBy("value");
+		assertEquals(left.join(shuffled).on("k").inner().getRows().getSize(), inner.getRows().getSize());
+		assertTrue(RunAggregator.isSorted(inner, "k"));
+
+		// a sorted index is used as order
+		Table unsorted = right.clone();
+		unsorted.getRows().sortDescBy("value");
+		unsorted.createSortedIndex("k");
+		Table indexed = left.join(unsorted).on("k").full();
+		unsorted.dropIndexes();
+		Table full = left.join(unsorted).on("k").full();
+		assertEquals(Arrays.asList(full.getColumn("value").toArray()), Arrays.asList(indexed.getColumn("value").toArray()));
+		assertEquals(Arrays.asList(full.getColumn("id").toArray()), Arrays.asList(indexed.getColumn("id").toArray()));
+
+		// sorted tables with missing keys are merged in row order
+		left.getRows().sortBy(SortKey.asc("k"), SortKey.asc("s"));
+		right.getRows().sortBy(SortKey.asc("k"), SortKey.asc("s"));
+		assertTrue(RunAggregator.isSorted(left, "k", "s"));
+		assertTrue(RunAggregator.isSorted(right, "k", "s"));
+		Table shuffledRight = right.clone();
+		shuffledRight.getRows().sortDescBy("value");
+		for (JoinType type : JoinType.values()) {
+			assertEquals(left.join(shuffledRight).on("k", "s").type(type).getRows().getSize(),
+					left.join(right).on("k", "s").type(type).getRows().getSize());
+		}
+		Map<Object, Integer> positions = new HashMap<Object, Integer>();
+		for (int i = 0; i < left.getRows().getSize(); i++) {
+			positions.put(left.get(i, "id"), i);
+		}
+		Table leftJoin = left.join(right).on("k", "s").left();
+		int previous = 0;
+		for (int i = 0; i < leftJoin.getRows().getSize(); i++) {
+			int position = positions.get(leftJoin.get(i, "id"));
+			assertTrue(position == previous || position == previous + 1 || (i == 0 && position == 0));
+			previous = position;
+		}
+		assertEquals(left.getRows().getSize() - 1, previous);
+
+	}
+
+	public void testParallelJoin() throws IOException {
+
+		Random random = new Random(13);
+		Table left = new Table("left");
+		left.getColumns().append(new IntegerColumn("k"));
+		left.getColumns().append(new IntegerColumn("id"));
+		for (int i = 0; i < 20000; i++) {
+			Integer key = random.nextInt(50) == 0 ? null : random.nextInt(30000);
+			left.getRows().append().set(new Object[] { key, i });
+		}
+		Table right = new Table("right");
+		right.getColumns().append(new IntegerColumn("k"));
+		right.getColumns().append(new DoubleColumn("value"));
+		for (int i = 0; i < 8000; i++) {
+			right.getRows().append().set(new Object[] { random.nextInt(30000), (double) i });
+		}
+
+		for (JoinType type : JoinType.values()) {
+			Table expected = left.join(right).on("k").type(type);
+			Table swappedExpected = right.join(left).on("k").type(type);
+			Table parallel = left.join(right).on("k").withParallel(new ParallelUtil(4, 1000)).withPartitionSize(256)
+					.type(type);
+			Table swapped = right.join(left).on("k").withParallel(new ParallelUtil(4, 1000)).withPartitionSize(256)
+					.type(type);
+			Table limited = left.join(right).on("k").withParallel(new ParallelUtil(4, 1000)).withPartitionSize(256)
+					.withMaxPartitions(8).type(type);
+			for (String column : expected.getColumns().getNames()) {
+				assertEquals(Arrays.asList(expected.getColumn(column).toArray()),
+						Arrays.asList(parallel.getColumn(column).toArray()));
+				assertEquals(Arrays.asList(expected.getColumn(column).toArray()),
+						Arrays.asList(limited.getColumn(column).toArray()));
+			}
+			for (String column : swappedExpected.getColumns().getNames()) {
+				assertEquals(Arrays.asList(swappedExpected.getColumn(column).toArray()),
+						Arrays.asList(swapped.getColumn(column).toArray()));
+			}
+		}
+
+		// string keys are encoded with a dictionary per chunk
+		left.getColumns().append(new StringColumn("s"), new IBuildValueFunction() {
+			public Object buildValue(Row row) {
+				return row.getObject("k") == null ? null : "k" + row.getObject("k");
+			}
+		});
+		right.getColumns().append(new StringColumn("s"), new IBuildValueFunction() {
+			public Object buildValue(Row row) {
+				return "k" + row.getObject("k");
+			}
+		});
+		Table expected = left.join(right).on("s").full();
+		Table parallel = left.join(right).on("s").withParallel(new ParallelUtil(4, 1000)).full();
+		for (String column : expected.getColumns().getNames()) {
+			assertEquals(Arrays.asList(expected.getColumn(column).toArray()),
+					Arrays.asList(parallel.getColumn(column).toArray()));
+		}
+
+	}
+
 }